@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Process-wide dictionary of mail addresses. Every distinct spelling gets a
+// small dense id, so an Email holds ints instead of its own copies of the
+// same few address strings. Each id also maps to the id of its lower-case
+// spelling, which makes case-insensitive matching an int comparison. Ids are
+// never reused. Lookups by id take no lock: an id is only ever obtained after
+// its entry has been written.
+public final class AddressTable {
+    private static final Map<String, Integer> ids = new HashMap<>();
+    private static volatile String[] addresses = new String[64];
+    private static volatile int[] folded = new int[64];
+    private static int size;
+
+    private AddressTable() {
+    }
+
+    // Id of this exact spelling, added if it is new.
+    public static synchronized int intern(String address) {
+        Integer id = ids.get(address);
+        if (id != null) return id;
+
+        String lower = address.toLowerCase(Locale.ROOT);
+        int foldedId = lower.equals(address) ? size : intern(lower);
+        id = size;
+        String[] names = addresses;
+        int[] folds = folded;
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            folds = Arrays.copyOf(folds, size * 2);
+        }
+        names[id] = address;
+        folds[id] = foldedId;
+        size++;
+        folded = folds;
+        addresses = names;
+        ids.put(address, id);
+        return id;
+    }
+
+    // Case-folded id of an address that has been seen before, or -1.
+    public static synchronized int find(String address) {
+        Integer id = ids.get(address.toLowerCase(Locale.ROOT));
+        return (id != null) ? id : -1;
+    }
+
+    public static String address(int id) {
+        return addresses[id];
+    }
+
+    public static int folded(int id) {
+        return folded[id];
+    }
+
+    public static synchronized int size() {
+        return size;
+    }
+}
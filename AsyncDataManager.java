@@ -0,0 +1,108 @@
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+
+// Runs blocking IDataManager calls off the Swing event thread.
+// Chain UI work with thenAcceptAsync(..., AsyncDataManager.EDT).
+public class AsyncDataManager {
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    private final IDataManager dataManager;
+    private final ExecutorService executor;
+
+    public AsyncDataManager(IDataManager dataManager) {
+        this.dataManager = dataManager;
+        this.executor = createExecutor();
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "mailcm-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public IDataManager getDataManager() {
+        return dataManager;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public CompletableFuture<Void> reload() {
+        return CompletableFuture.runAsync(dataManager::reloadData, executor);
+    }
+
+    public CompletableFuture<Void> deliver(List<Email> emails) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> {
+            for (Email email : batch) {
+                dataManager.addEmail(email);
+            }
+        }, executor);
+    }
+
+    public CompletableFuture<Void> update(Email email) {
+        return CompletableFuture.runAsync(() -> dataManager.updateEmail(email), executor);
+    }
+
+    public CompletableFuture<Void> move(List<Email> emails, EmailStatus status) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.moveEmails(batch, status), executor);
+    }
+
+    public CompletableFuture<Void> defer(List<Email> emails, EmailStatus status, long until) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.deferEmails(batch, status, until), executor);
+    }
+
+    public CompletableFuture<Void> delete(List<Email> emails) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.deleteEmails(batch), executor);
+    }
+
+    public CompletableFuture<Void> moveInMailbox(String user, List<Email> emails, EmailStatus status, long deferUntil) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.moveInMailbox(user, batch, status, deferUntil), executor);
+    }
+
+    public CompletableFuture<Void> markRead(String user, List<Email> emails, boolean read) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.markRead(user, batch, read), executor);
+    }
+
+    public CompletableFuture<Void> removeFromMailbox(String user, List<Email> emails) {
+        List<Email> batch = new ArrayList<>(emails);
+        return CompletableFuture.runAsync(() -> dataManager.removeFromMailbox(user, batch), executor);
+    }
+
+    public CompletableFuture<Void> saveAll() {
+        return CompletableFuture.runAsync(dataManager::saveAll, executor);
+    }
+
+    // One task per file, so several attachments are copied in parallel.
+    public CompletableFuture<String> saveAttachment(File file, AttachmentTransfer transfer) {
+        return CompletableFuture.supplyAsync(() -> dataManager.saveAttachment(file, transfer), executor);
+    }
+
+    public CompletableFuture<Void> exportAttachment(String uniqueFilename, File target, AttachmentTransfer transfer) {
+        return CompletableFuture.runAsync(() -> dataManager.exportAttachment(uniqueFilename, target, transfer), executor);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
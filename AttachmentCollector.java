@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deletes attachment blobs whose reference count dropped to zero. Runs on one
+// daemon thread, takes the store lock for a single unlink at a time and is
+// rate limited so a mass delete never competes with the UI for the disk.
+//
+// Only released references are collected, not every unreferenced file: the
+// file and SQLite stores share database/attachments, so a blob unknown to the
+// current store may still belong to the other one. Stale temp files left by
+// an interrupted save are swept on request.
+public class AttachmentCollector {
+    private static final int DELETES_PER_SECOND = 20;
+    private static final String SWEEP_TEMP_FILES = "";
+
+    private final AttachmentStore store;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    // Candidates saved too recently to collect, oldest first. Worker thread only.
+    private final ArrayDeque<Retry> retries = new ArrayDeque<>();
+
+    private static final class Retry {
+        final String name;
+        final long due;
+
+        Retry(String name, long due) {
+            this.name = name;
+            this.due = due;
+        }
+    }
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    public AttachmentCollector(AttachmentStore store) {
+        this.store = store;
+        Thread worker = new Thread(this::run, "mailcm-attachment-gc");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public void enqueue(String blobName) {
+        if (queued.add(blobName)) {
+            queue.add(blobName);
+        }
+    }
+
+    public void sweepTempFiles() {
+        queue.add(SWEEP_TEMP_FILES);
+    }
+
+    public int getPendingCount() { return queued.size(); }
+    public long getDeletedCount() { return deleted.get(); }
+    public long getSkippedCount() { return skipped.get(); }
+    public long getReclaimedBytes() { return reclaimedBytes.get(); }
+
+    public String describe() {
+        return String.format("%d deleted, %.1f MB reclaimed, %d pending, %d kept",
+                getDeletedCount(), getReclaimedBytes() / (1024.0 * 1024.0), getPendingCount(), getSkippedCount());
+    }
+
+    private void run() {
+        long pause = 1000 / DELETES_PER_SECOND;
+        while (true) {
+            String name;
+            try {
+                name = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (name == null) continue;
+
+            if (name == SWEEP_TEMP_FILES) {
+                sweep();
+                continue;
+            }
+
+            long bytes = store.deleteIfUnreferenced(name);
+            if (bytes == AttachmentStore.RECENT) {
+                retries.add(new Retry(name, System.currentTimeMillis() + AttachmentStore.CLAIM_GRACE_MS));
+                continue;
+            }
+            queued.remove(name);
+            if (bytes < 0) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            deleted.incrementAndGet();
+            reclaimedBytes.addAndGet(bytes);
+
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private String next() throws InterruptedException {
+        Retry retry = retries.peek();
+        if (retry == null) {
+            return queue.take();
+        }
+        long wait = retry.due - System.currentTimeMillis();
+        if (wait <= 0) {
+            return retries.poll().name;
+        }
+        return queue.poll(wait, TimeUnit.MILLISECONDS);
+    }
+
+    private void sweep() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(store.getDirectory())) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (AttachmentStore.isTempFile(name)) {
+                    enqueue(name);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Attachment sweep failed: " + e.getMessage());
+        }
+    }
+}
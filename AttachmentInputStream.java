@@ -0,0 +1,86 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+// Streams a chunked blob one chunk file at a time. Every chunk is hashed as it
+// is read and checked against the manifest before its last bytes are returned,
+// so corruption stops the stream at the chunk where it occurs. A read starting
+// mid-chunk hashes the skipped prefix so the first chunk is checked as well.
+public class AttachmentInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path blob;
+    private final AttachmentManifest manifest;
+    private final MessageDigest digest;
+    private int index;
+    private InputStream current;
+    private long remaining;
+
+    AttachmentInputStream(Path blob, AttachmentManifest manifest, long offset) throws IOException {
+        this.blob = blob;
+        this.manifest = manifest;
+        this.digest = AttachmentStore.sha256();
+        if (offset >= manifest.getSize()) {
+            index = manifest.getChunkCount();
+            return;
+        }
+
+        index = (int) (offset / manifest.getChunkSize());
+        openChunk();
+        long skip = offset - (long) index * manifest.getChunkSize();
+        byte[] discard = new byte[(int) Math.min(skip, BUFFER_SIZE)];
+        while (skip > 0) {
+            int n = read(discard, 0, (int) Math.min(skip, discard.length));
+            if (n < 0) break;
+            skip -= n;
+        }
+    }
+
+    private void openChunk() throws IOException {
+        current = new BufferedInputStream(Files.newInputStream(AttachmentManifest.chunkPath(blob, index)), BUFFER_SIZE);
+        remaining = manifest.getChunkLength(index);
+        digest.reset();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return (n < 0) ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (current == null) return -1;
+        if (len == 0) return 0;
+
+        int n = current.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new IOException("Attachment chunk " + index + " of " + blob.getFileName() + " is truncated");
+        }
+        digest.update(b, off, n);
+        remaining -= n;
+        if (remaining == 0) {
+            current.close();
+            current = null;
+            if (!AttachmentStore.toHex(digest.digest()).equals(manifest.getDigest(index))) {
+                throw new IOException("Attachment chunk " + index + " of " + blob.getFileName() + " is corrupt");
+            }
+            if (++index < manifest.getChunkCount()) {
+                openChunk();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Layout of a chunked attachment blob: attachments/<id>/manifest holds the
+// total size, the chunk size and the SHA-256 of every chunk, and chunk i is
+// stored in attachments/<id>/<i>. The blob id is the SHA-256 of the chunk
+// digests in order, so equal content always gets the same id.
+public class AttachmentManifest {
+    static final String FILE_NAME = "manifest";
+
+    private final long size;
+    private final int chunkSize;
+    private final List<String> digests;
+
+    public AttachmentManifest(long size, int chunkSize, List<String> digests) {
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.digests = Collections.unmodifiableList(new ArrayList<>(digests));
+    }
+
+    public long getSize() { return size; }
+    public int getChunkSize() { return chunkSize; }
+    public int getChunkCount() { return digests.size(); }
+    public String getDigest(int index) { return digests.get(index); }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    static Path chunkPath(Path blob, int index) {
+        return blob.resolve(String.format("%06d", index));
+    }
+
+    public String id() throws IOException {
+        MessageDigest digest = AttachmentStore.sha256();
+        for (String chunk : digests) {
+            digest.update(chunk.getBytes(StandardCharsets.US_ASCII));
+        }
+        return AttachmentStore.toHex(digest.digest());
+    }
+
+    public void write(Path blob) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("size " + size);
+        lines.add("chunk " + chunkSize);
+        lines.addAll(digests);
+        Files.write(blob.resolve(FILE_NAME), lines, StandardCharsets.US_ASCII);
+    }
+
+    public static AttachmentManifest read(Path blob) throws IOException {
+        List<String> lines = Files.readAllLines(blob.resolve(FILE_NAME), StandardCharsets.US_ASCII);
+        if (lines.size() < 2 || !lines.get(0).startsWith("size ") || !lines.get(1).startsWith("chunk ")) {
+            throw new IOException("Malformed attachment manifest in " + blob.getFileName());
+        }
+        try {
+            long size = Long.parseLong(lines.get(0).substring(5));
+            int chunkSize = Integer.parseInt(lines.get(1).substring(6));
+            AttachmentManifest manifest = new AttachmentManifest(size, chunkSize, lines.subList(2, lines.size()));
+            long chunks = (size + chunkSize - 1) / chunkSize;
+            if (chunkSize <= 0 || manifest.getChunkCount() != chunks) {
+                throw new IOException("Attachment manifest of " + blob.getFileName() + " does not match its size");
+            }
+            return manifest;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed attachment manifest in " + blob.getFileName(), e);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+// Thumbnails for image attachments and the first lines of text attachments,
+// both rendered to a small image. Decoding runs on a small pool of its own and
+// reads the blob through mmap; images are subsampled while decoding so a
+// large photo is never held at full resolution. Results, including "no
+// preview", are kept in an LRU cache keyed by blob name and bounded by pixel
+// bytes.
+public class AttachmentPreviews {
+    public static final int WIDTH = 120;
+    public static final int HEIGHT = 90;
+    private static final long CACHE_BYTES = 24L * 1024 * 1024;
+    private static final int TEXT_PROBE_BYTES = 4096;
+    private static final int TEXT_LINES = 7;
+    // Marks an attachment that has no preview, so it is not probed again.
+    private static final BufferedImage NONE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    private final AttachmentStore store;
+    private final ExecutorService executor;
+    private final LinkedHashMap<String, BufferedImage> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<BufferedImage>> loading = new HashMap<>();
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long decoded;
+
+    public AttachmentPreviews(AttachmentStore store) {
+        this.store = store;
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "mailcm-preview");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    // Completes with the preview, or null if the attachment has none. Cancel
+    // the returned future when the preview is no longer wanted; a request that
+    // has not started decoding yet is then dropped.
+    public synchronized CompletableFuture<BufferedImage> request(String ref) {
+        String key = AttachmentStore.blobName(ref);
+        BufferedImage cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+            return CompletableFuture.completedFuture((cached == NONE) ? null : cached);
+        }
+        CompletableFuture<BufferedImage> pending = loading.get(key);
+        if (pending != null && !pending.isDone()) {
+            // A second viewer of the same attachment must not be able to cancel the first.
+            return pending.thenApply(image -> image);
+        }
+
+        misses++;
+        CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        loading.put(key, future);
+        future.whenComplete((image, ex) -> finished(key, future, image, ex));
+        executor.execute(() -> {
+            if (future.isDone()) return;
+            synchronized (this) {
+                decoded++;
+            }
+            try {
+                future.complete(load(ref));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private synchronized void finished(String key, CompletableFuture<BufferedImage> future, BufferedImage image,
+                                       Throwable ex) {
+        if (loading.get(key) == future) {
+            loading.remove(key);
+        }
+        if (ex == null) {
+            put(key, (image != null) ? image : NONE);
+        } else if (!future.isCancelled()) {
+            System.err.println("Could not preview attachment " + AttachmentStore.displayName(key) + ": " + ex.getMessage());
+            put(key, NONE);
+        }
+    }
+
+    private void put(String key, BufferedImage image) {
+        BufferedImage previous = cache.put(key, image);
+        if (previous != null) {
+            cachedBytes -= weight(previous);
+        }
+        cachedBytes += weight(image);
+        Iterator<BufferedImage> eldest = cache.values().iterator();
+        while (cachedBytes > CACHE_BYTES && eldest.hasNext()) {
+            cachedBytes -= weight(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4 + 64;
+    }
+
+    public synchronized long getCachedBytes() { return cachedBytes; }
+    public synchronized int getCachedCount() { return cache.size(); }
+    public synchronized long getHitCount() { return hits; }
+    public synchronized long getMissCount() { return misses; }
+    public synchronized long getDecodedCount() { return decoded; }
+
+    private BufferedImage load(String ref) throws IOException {
+        MappedAttachment attachment = store.map(ref);
+        BufferedImage image = loadImage(attachment);
+        return (image != null) ? image : loadText(attachment);
+    }
+
+    private static BufferedImage loadImage(MappedAttachment attachment) throws IOException {
+        try (ImageInputStream in = new MappedImageInputStream(attachment)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // Decode at no more than twice the thumbnail size, then scale smoothly.
+                int step = Math.max(1, Math.min(width / (2 * WIDTH), height / (2 * HEIGHT)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source) {
+        double ratio = Math.min(1.0, Math.min((double) WIDTH / source.getWidth(), (double) HEIGHT / source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    // Treats the head of the file as text if it has no NUL bytes and decodes as
+    // UTF-8 with few replacements.
+    private static BufferedImage loadText(MappedAttachment attachment) throws IOException {
+        byte[] head = new byte[(int) Math.min(TEXT_PROBE_BYTES, attachment.size())];
+        int length = 0;
+        while (length < head.length) {
+            int n = attachment.read(length, head, length, head.length - length);
+            if (n < 0) break;
+            length += n;
+        }
+        if (length == 0) return null;
+        for (int i = 0; i < length; i++) {
+            if (head[i] == 0) return null;
+        }
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(length);
+        decoder.decode(ByteBuffer.wrap(head, 0, length), chars, false);
+        String text = chars.flip().toString();
+        long replaced = text.chars().filter(c -> c == '\uFFFD').count();
+        if (replaced * 20 > text.length()) return null;
+
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawRect(0, 0, WIDTH - 1, HEIGHT - 1);
+        g.setColor(Color.DARK_GRAY);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 9));
+        int lineHeight = g.getFontMetrics().getHeight();
+        String[] lines = text.split("\r?\n", TEXT_LINES + 1);
+        for (int i = 0; i < Math.min(lines.length, TEXT_LINES); i++) {
+            g.drawString(lines[i].replace('\t', ' '), 4, 4 + lineHeight * (i + 1) - g.getFontMetrics().getDescent());
+        }
+        g.dispose();
+        return image;
+    }
+
+    // Lets ImageIO seek around a mapped attachment without copying it into a
+    // heap or disk cache first.
+    private static class MappedImageInputStream extends ImageInputStreamImpl {
+        private final MappedAttachment attachment;
+
+        MappedImageInputStream(MappedAttachment attachment) {
+            this.attachment = attachment;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return (n < 0) ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            bitOffset = 0;
+            if (len == 0) return 0;
+            int n = attachment.read(streamPos, b, off, len);
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return attachment.size();
+        }
+    }
+}
@@ -0,0 +1,500 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Content-addressed attachment blobs. A file is stored once under
+// attachments/<id>, however many messages attach it; the reference kept on
+// a message is "<id>-<original name>". New blobs are directories of fixed-size
+// chunks described by an AttachmentManifest; blobs written before chunking are
+// single files named by the SHA-256 of their content and stay readable.
+// Reference counts are kept per messageId, so copies of one message count
+// once. Blobs whose count drops to zero are handed to the AttachmentCollector.
+public class AttachmentStore {
+    private static final Pattern HASH_REF = Pattern.compile("[0-9a-f]{64}-.*");
+    private static final Pattern HASH_NAME = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern LEGACY_REF = Pattern.compile("[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}-.*");
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final String TEMP_PREFIX = "incoming-";
+    private static final String TRASH_PREFIX = TEMP_PREFIX + "deleted-";
+    private static final String JOURNAL = "journal";
+    // Kept free so a large attachment cannot fill the disk the databases live on.
+    private static final long RESERVED_SPACE = 256L * 1024 * 1024;
+
+    // A blob saved this recently may be about to be referenced by an email that
+    // has not been written yet, so it is never collected.
+    static final long CLAIM_GRACE_MS = 10 * 60 * 1000;
+    // How long an interrupted copy can be resumed by saving the same file again.
+    static final long RESUME_WINDOW_MS = 24 * 60 * 60 * 1000;
+    static final long REFERENCED = -1;
+    static final long RECENT = -2;
+
+    private final Path dir;
+    private final Map<String, List<String>> bound = new HashMap<>();
+    private final Map<String, Integer> refCounts = new HashMap<>();
+    private final Map<String, Long> claims = new HashMap<>();
+    private final Set<String> staging = new HashSet<>();
+    private final AttachmentCollector collector;
+    private Map<Long, Integer> blobSizes;
+
+    public AttachmentStore(String dir) {
+        this.dir = Paths.get(dir);
+        this.collector = new AttachmentCollector(this);
+    }
+
+    public AttachmentCollector getCollector() {
+        return collector;
+    }
+
+    Path getDirectory() {
+        return dir;
+    }
+
+    public static boolean isContentAddressed(String ref) {
+        return ref != null && HASH_REF.matcher(ref).matches();
+    }
+
+    public static String hashOf(String ref) {
+        return isContentAddressed(ref) ? ref.substring(0, 64) : null;
+    }
+
+    // File name under the attachments directory. References written before
+    // content addressing name their file directly.
+    static String blobName(String ref) {
+        return isContentAddressed(ref) ? ref.substring(0, 64) : ref;
+    }
+
+    static boolean isTempFile(String name) {
+        return name.startsWith(TEMP_PREFIX);
+    }
+
+    public static String displayName(String ref) {
+        if (isContentAddressed(ref)) return ref.substring(65);
+        if (LEGACY_REF.matcher(ref).matches()) return ref.substring(37);
+        return ref;
+    }
+
+    public void checkCapacity(long size) throws IOException {
+        long usable = Files.getFileStore(dir).getUsableSpace();
+        if (size + RESERVED_SPACE > usable) {
+            throw new IOException(String.format("Not enough disk space for a %.1f MB attachment (%.1f MB free)",
+                    size / (1024.0 * 1024.0), Math.max(0, usable - RESERVED_SPACE) / (1024.0 * 1024.0)));
+        }
+    }
+
+    public String save(File file) throws IOException {
+        return save(file, null);
+    }
+
+    // Hashes and copies the file chunk by chunk into a staging directory, then
+    // renames it into place. A file can only duplicate a chunked blob of the
+    // same size, so when one exists it is hashed read-only first and the copy is
+    // skipped on a match. Single-file blobs are named by a whole-file hash that
+    // a chunk manifest id never equals, so their sizes do not count. The staging directory is keyed by the source file, so if a copy
+    // is interrupted, saving the same file again resumes after the last chunk
+    // that still verifies.
+    public String save(File file, AttachmentTransfer transfer) throws IOException {
+        Path source = file.toPath();
+        long size = Files.size(source);
+        if (hasBlobOfSize(size)) {
+            List<String> digests = new ArrayList<>();
+            copyChunks(source, size, null, digests, transfer);
+            String id = new AttachmentManifest(size, CHUNK_SIZE, digests).id();
+            if (claim(id, null, size)) {
+                return id + "-" + file.getName();
+            }
+            if (transfer != null) {
+                transfer.restart();
+            }
+        }
+        checkCapacity(size);
+
+        Path temp = acquireStaging(source, size);
+        try {
+            List<String> digests = resume(temp, size, transfer);
+            copyChunks(source, size, temp, digests, transfer);
+            AttachmentManifest manifest = new AttachmentManifest(size, CHUNK_SIZE, digests);
+            manifest.write(temp);
+            String id = manifest.id();
+            claim(id, temp, size);
+            if (Files.exists(temp)) {
+                deleteTree(temp);
+            }
+            return id + "-" + file.getName();
+        } finally {
+            releaseStaging(temp);
+        }
+    }
+
+    // The same source (path, size and modification time) always maps to the
+    // same staging directory. A concurrent save of that source gets a fresh
+    // one instead.
+    private synchronized Path acquireStaging(Path source, long size) throws IOException {
+        MessageDigest digest = sha256();
+        String key = source.toAbsolutePath() + "\0" + size + "\0" + Files.getLastModifiedTime(source).toMillis();
+        String name = TEMP_PREFIX + toHex(digest.digest(key.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+        Path temp = staging.add(name) ? dir.resolve(name) : Files.createTempDirectory(dir, TEMP_PREFIX);
+        staging.add(temp.getFileName().toString());
+        Files.createDirectories(temp);
+        return temp;
+    }
+
+    // A staging directory left behind by a failed or cancelled copy is kept for
+    // RESUME_WINDOW_MS, then collected.
+    private synchronized void releaseStaging(Path temp) {
+        String name = temp.getFileName().toString();
+        staging.remove(name);
+        if (Files.exists(temp)) {
+            collector.enqueue(name);
+        }
+    }
+
+    // Returns the digests of the chunks already staged by an interrupted copy,
+    // up to the first one that is missing or fails verification.
+    private List<String> resume(Path temp, long size, AttachmentTransfer transfer) throws IOException {
+        List<String> digests = new ArrayList<>();
+        Path journal = temp.resolve(JOURNAL);
+        if (!Files.exists(journal)) return digests;
+
+        for (String expected : Files.readAllLines(journal, StandardCharsets.US_ASCII)) {
+            int index = digests.size();
+            long length = Math.min(CHUNK_SIZE, size - (long) index * CHUNK_SIZE);
+            Path chunk = AttachmentManifest.chunkPath(temp, index);
+            if (length <= 0 || !Files.exists(chunk) || Files.size(chunk) != length
+                    || !expected.equals(hashFile(chunk))) {
+                break;
+            }
+            digests.add(expected);
+            if (transfer != null) {
+                transfer.advance(length);
+            }
+        }
+        Files.write(journal, digests, StandardCharsets.US_ASCII);
+        return digests;
+    }
+
+    // Maps the source a chunk at a time, starting after the chunks already in
+    // digests. The digest reads the mapped pages and the same buffer is written
+    // to the chunk file, so the data never passes through a heap array. With no
+    // target the file is only hashed.
+    private static void copyChunks(Path source, long size, Path target, List<String> digests,
+                                   AttachmentTransfer transfer) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (in.size() != size) {
+                throw new IOException(source.getFileName() + " changed while it was being attached");
+            }
+            for (long position = (long) digests.size() * CHUNK_SIZE; position < size; position += CHUNK_SIZE) {
+                int length = (int) Math.min(CHUNK_SIZE, size - position);
+                MappedByteBuffer chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                digest.update(chunk.duplicate());
+                String hex = toHex(digest.digest());
+                if (target != null) {
+                    try (FileChannel out = FileChannel.open(AttachmentManifest.chunkPath(target, digests.size()),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        while (chunk.hasRemaining()) {
+                            out.write(chunk);
+                        }
+                    }
+                    Files.write(target.resolve(JOURNAL), List.of(hex), StandardCharsets.US_ASCII,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                digests.add(hex);
+                if (transfer != null) {
+                    transfer.advance(length);
+                }
+            }
+        }
+    }
+
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            digest.update(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+        }
+        return toHex(digest.digest());
+    }
+
+    // Copies a blob out with FileChannel.transferTo, a chunk at a time so
+    // progress and cancellation are checked between them. Writes to a sibling
+    // temp file and renames, so a cancelled export never leaves a truncated
+    // target.
+    public void export(String ref, File target, AttachmentTransfer transfer) throws IOException {
+        Path blob = locate(ref);
+        Path destination = target.toPath().toAbsolutePath();
+        Path temp = destination.resolveSibling("." + target.getName() + ".part");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (Files.isDirectory(blob)) {
+                    AttachmentManifest manifest = AttachmentManifest.read(blob);
+                    for (int i = 0; i < manifest.getChunkCount(); i++) {
+                        transferFile(AttachmentManifest.chunkPath(blob, i), out, transfer);
+                    }
+                } else {
+                    transferFile(blob, out, transfer);
+                }
+            }
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void transferFile(Path source, FileChannel out, AttachmentTransfer transfer) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long sent = in.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+                position += sent;
+                if (transfer != null) {
+                    transfer.advance(sent);
+                }
+            }
+        }
+    }
+
+    // Streams the attachment from offset. Chunked blobs are verified chunk by
+    // chunk as they are read.
+    public InputStream open(String ref, long offset) throws IOException {
+        Path blob = locate(ref);
+        if (Files.isDirectory(blob)) {
+            return new AttachmentInputStream(blob, AttachmentManifest.read(blob), offset);
+        }
+        FileChannel channel = FileChannel.open(blob, StandardOpenOption.READ);
+        channel.position(offset);
+        return Channels.newInputStream(channel);
+    }
+
+    public MappedAttachment map(String ref) throws IOException {
+        Path blob = locate(ref);
+        if (Files.isDirectory(blob)) {
+            AttachmentManifest manifest = AttachmentManifest.read(blob);
+            return new MappedAttachment(blob, manifest, manifest.getSize(), manifest.getChunkSize());
+        }
+        return new MappedAttachment(blob, null, Files.size(blob), CHUNK_SIZE);
+    }
+
+    // Size in bytes, or -1 if the attachment is missing.
+    public long size(String ref) {
+        if (ref == null) return -1;
+        try {
+            return blobSize(locate(ref));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Path locate(String ref) throws IOException {
+        Path blob = (ref != null) ? dir.resolve(blobName(ref)) : null;
+        if (blob == null || !Files.exists(blob)) {
+            throw new FileNotFoundException("Attachment file not found: " + ((ref != null) ? displayName(ref) : null));
+        }
+        return blob;
+    }
+
+    private static long blobSize(Path blob) throws IOException {
+        return Files.isDirectory(blob) ? AttachmentManifest.read(blob).getSize() : Files.size(blob);
+    }
+
+    // Marks the blob as just saved so the collector leaves it alone, and moves
+    // the staged copy into place if the blob is missing. Returns whether the
+    // blob exists afterwards.
+    private synchronized boolean claim(String id, Path temp, long size) throws IOException {
+        claims.put(id, System.currentTimeMillis());
+        // Collected after the grace period if no email ever references it, e.g.
+        // when the send that saved it was cancelled.
+        collector.enqueue(id);
+        Path blob = dir.resolve(id);
+        if (Files.exists(blob)) return true;
+        if (temp == null) return false;
+
+        Files.delete(temp.resolve(JOURNAL));
+        Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        if (blobSizes != null) {
+            blobSizes.merge(size, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    private synchronized boolean hasBlobOfSize(long size) throws IOException {
+        if (blobSizes == null) {
+            blobSizes = new HashMap<>();
+            try (DirectoryStream<Path> blobs = Files.newDirectoryStream(dir)) {
+                for (Path blob : blobs) {
+                    if (HASH_NAME.matcher(blob.getFileName().toString()).matches() && Files.isDirectory(blob)) {
+                        try {
+                            blobSizes.merge(blobSize(blob), 1, Integer::sum);
+                        } catch (IOException e) {
+                            System.err.println("Skipping unreadable attachment " + blob.getFileName() + ": " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+        return blobSizes.containsKey(size);
+    }
+
+    public synchronized void bind(String messageId, List<String> refs) {
+        List<String> names = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String ref : refs) {
+            if (ref != null && seen.add(blobName(ref))) {
+                names.add(blobName(ref));
+            }
+        }
+
+        List<String> previous = bound.put(messageId, names);
+        for (String name : names) {
+            refCounts.merge(name, 1, Integer::sum);
+        }
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    public synchronized void unbind(String messageId) {
+        List<String> previous = bound.remove(messageId);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    private void release(List<String> names) {
+        for (String name : names) {
+            Integer count = refCounts.computeIfPresent(name, (n, c) -> (c > 1) ? c - 1 : null);
+            if (count == null) {
+                collector.enqueue(name);
+            }
+        }
+    }
+
+    // Releases messages that no longer have any copy among the remaining emails.
+    public synchronized void unbindRemoved(List<Email> removed, List<Email> remaining) {
+        Set<String> live = new HashSet<>();
+        for (Email email : remaining) {
+            live.add(email.getMessageId());
+        }
+        for (Email email : removed) {
+            if (!live.contains(email.getMessageId())) {
+                unbind(email.getMessageId());
+            }
+        }
+    }
+
+    public synchronized void rebuild(List<Email> emails) {
+        bound.clear();
+        refCounts.clear();
+        for (Email email : emails) {
+            if (email.getMessageId() != null && !bound.containsKey(email.getMessageId())) {
+                bind(email.getMessageId(), email.getAttachmentPaths());
+            }
+        }
+    }
+
+    public synchronized int refCount(String name) {
+        return refCounts.getOrDefault(name, 0);
+    }
+
+    // Called by the collector for one candidate at a time. Returns the bytes
+    // reclaimed, REFERENCED if the blob is in use or already gone, or RECENT if
+    // it is inside the claim grace or is a staged copy that may still be
+    // resumed. A chunked blob is renamed aside under the lock and its chunks are
+    // unlinked after it is released.
+    long deleteIfUnreferenced(String name) {
+        Path trash;
+        synchronized (this) {
+            if (refCounts.containsKey(name)) return REFERENCED;
+
+            long now = System.currentTimeMillis();
+            Long claimed = claims.get(name);
+            if (claimed != null) {
+                if (now - claimed < CLAIM_GRACE_MS) return RECENT;
+                claims.remove(name);
+            }
+
+            Path blob = dir.resolve(name);
+            try {
+                if (isTempFile(name) && !name.startsWith(TRASH_PREFIX)) {
+                    long age = now - Files.getLastModifiedTime(blob).toMillis();
+                    if (staging.contains(name) || age < (Files.isDirectory(blob) ? RESUME_WINDOW_MS : CLAIM_GRACE_MS)) {
+                        return RECENT;
+                    }
+                }
+                boolean indexed = HASH_NAME.matcher(name).matches();
+                long size = blobSize(blob);
+                if (Files.isDirectory(blob)) {
+                    trash = name.startsWith(TRASH_PREFIX) ? blob : dir.resolve(TRASH_PREFIX + name);
+                    if (trash != blob) {
+                        Files.move(blob, trash, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } else {
+                    trash = null;
+                    Files.delete(blob);
+                }
+                if (blobSizes != null && indexed) {
+                    blobSizes.computeIfPresent(size, (s, c) -> (c > 1) ? c - 1 : null);
+                }
+                if (trash == null) return size;
+            } catch (IOException e) {
+                return REFERENCED;
+            }
+        }
+
+        try {
+            return deleteTree(trash);
+        } catch (IOException e) {
+            System.err.println("Error deleting attachment " + name + ": " + e.getMessage());
+            return REFERENCED;
+        }
+    }
+
+    // Deletes a chunked blob or staging directory, returning the bytes freed.
+    private static long deleteTree(Path directory) throws IOException {
+        long bytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                bytes += Files.size(file);
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        return bytes;
+    }
+
+    static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Progress and cancellation for one attachment copy. The copying thread calls
+// advance() after every chunk; the UI polls getDone() and may cancel(), which
+// makes the next advance() throw.
+public class AttachmentTransfer {
+    private final long total;
+    private final AtomicLong done = new AtomicLong();
+    private volatile boolean cancelled;
+
+    public AttachmentTransfer(long total) {
+        this.total = total;
+    }
+
+    public long getTotal() { return total; }
+    public long getDone() { return done.get(); }
+    public boolean isCancelled() { return cancelled; }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Starts counting again when the same bytes have to be read a second time.
+    void restart() {
+        done.set(0);
+    }
+
+    void advance(long bytes) {
+        if (cancelled) {
+            throw new CancellationException("Attachment transfer cancelled");
+        }
+        done.addAndGet(bytes);
+    }
+}
@@ -0,0 +1,105 @@
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Off-heap storage for the packed bodies of hot messages. Bodies are copied
+// into direct slabs and handed out as read-only slices, so the heap holds one
+// small buffer object per body instead of the body bytes, and the collector
+// never copies or marks them. A slab is dropped once none of its bodies are
+// referenced, and its memory goes when the last slice of it is collected.
+// Slabs are not compacted: bodies are allocated roughly in age order and
+// leave for the cold segments in the same order, so slabs empty out whole.
+public final class BodyArena {
+    private static final int SLAB_SIZE = 1024 * 1024;
+    // Larger bodies get a direct buffer of their own.
+    private static final int MAX_SLAB_ALLOCATION = SLAB_SIZE / 4;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        int used;
+        int live;
+
+        Slab(ByteBuffer memory) {
+            this.memory = memory;
+        }
+    }
+
+    private static final Set<Slab> slabs = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static Slab current;
+    private static long liveBytes;
+    private static long liveCount;
+    private static long heapFallbacks;
+
+    private BodyArena() {
+    }
+
+    // Returns a read-only copy of packed outside the heap. Falls back to a heap
+    // buffer if direct memory (-XX:MaxDirectMemorySize) is exhausted.
+    static ByteBuffer store(byte[] packed) {
+        if (packed == null) return null;
+        int length = packed.length;
+        Slab slab;
+        int offset;
+        synchronized (BodyArena.class) {
+            try {
+                if (length > MAX_SLAB_ALLOCATION) {
+                    slab = new Slab(ByteBuffer.allocateDirect(length));
+                    slabs.add(slab);
+                } else {
+                    if (current == null || current.used + length > current.memory.capacity()) {
+                        Slab previous = current;
+                        current = new Slab(ByteBuffer.allocateDirect(SLAB_SIZE));
+                        slabs.add(current);
+                        if (previous != null && previous.live == 0) {
+                            slabs.remove(previous);
+                        }
+                    }
+                    slab = current;
+                }
+            } catch (OutOfMemoryError e) {
+                heapFallbacks++;
+                return ByteBuffer.wrap(packed.clone()).asReadOnlyBuffer();
+            }
+            offset = slab.used;
+            slab.used += length;
+            slab.live += length;
+            liveBytes += length;
+            liveCount++;
+        }
+
+        ByteBuffer slice = slab.memory.slice(offset, length);
+        slice.put(0, packed);
+        ByteBuffer view = slice.asReadOnlyBuffer();
+        CLEANER.register(view, () -> release(slab, length));
+        return view;
+    }
+
+    private static synchronized void release(Slab slab, int length) {
+        slab.live -= length;
+        liveBytes -= length;
+        liveCount--;
+        if (slab.live == 0 && slab != current) {
+            slabs.remove(slab);
+        }
+    }
+
+    static synchronized long getLiveBytes() { return liveBytes; }
+    static synchronized long getLiveCount() { return liveCount; }
+    static synchronized long getHeapFallbacks() { return heapFallbacks; }
+
+    static synchronized long getReservedBytes() {
+        long bytes = 0;
+        for (Slab slab : slabs) {
+            bytes += slab.memory.capacity();
+        }
+        return bytes;
+    }
+
+    public static String describe() {
+        return String.format("%d bodies, %.1f MB live in %.1f MB off-heap",
+                getLiveCount(), getLiveBytes() / (1024.0 * 1024.0), getReservedBytes() / (1024.0 * 1024.0));
+    }
+}
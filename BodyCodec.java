@@ -0,0 +1,220 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compressed form of message bodies. Bodies are deflated against a preset
+// dictionary trained on the stored corpus, which carries the greetings,
+// sign-offs and quote headers every message repeats. The packed form starts
+// with a tag byte; dictionary-packed bodies name their dictionary by its
+// Adler-32 so bodies written under an older dictionary still decode.
+public final class BodyCodec {
+    private static final byte RAW = 0;
+    private static final byte DEFLATE = 1;
+    private static final byte DEFLATE_DICTIONARY = 2;
+    // Shorter bodies are stored as UTF-8; deflate would not pay for its header.
+    private static final int MIN_DEFLATE_BYTES = 48;
+
+    public static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int MIN_TRAINING_BYTES = 64 * 1024;
+    private static final int MAX_TRAINING_BYTES = 8 * 1024 * 1024;
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+    private static final int TABLE_BITS = 22;
+
+    private static final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private static volatile byte[] current;
+    private static volatile int currentId;
+
+    private BodyCodec() {
+    }
+
+    // Makes the dictionary available for decoding and uses it for new bodies.
+    public static void install(byte[] dictionary) {
+        int id = idOf(dictionary);
+        dictionaries.put(id, dictionary);
+        currentId = id;
+        current = dictionary;
+    }
+
+    public static boolean hasDictionary() {
+        return current != null;
+    }
+
+    public static int idOf(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+    public static byte[] encode(String body) {
+        if (body == null) return null;
+        byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length < MIN_DEFLATE_BYTES) {
+            return tagged(RAW, 0, utf8, utf8.length, false);
+        }
+
+        byte[] dictionary = current;
+        int dictionaryId = currentId;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(utf8);
+            deflater.finish();
+            byte[] out = new byte[utf8.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (length >= utf8.length) {
+                return tagged(RAW, 0, utf8, utf8.length, false);
+            }
+            return (dictionary != null)
+                    ? tagged(DEFLATE_DICTIONARY, dictionaryId, out, length, true)
+                    : tagged(DEFLATE, 0, out, length, false);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] tagged(byte tag, int dictionaryId, byte[] data, int length, boolean withId) {
+        int header = withId ? 5 : 1;
+        byte[] packed = new byte[header + length];
+        packed[0] = tag;
+        if (withId) {
+            packed[1] = (byte) (dictionaryId >>> 24);
+            packed[2] = (byte) (dictionaryId >>> 16);
+            packed[3] = (byte) (dictionaryId >>> 8);
+            packed[4] = (byte) dictionaryId;
+        }
+        System.arraycopy(data, 0, packed, header, length);
+        return packed;
+    }
+
+    public static String decode(byte[] packed) {
+        return (packed != null) ? decode(ByteBuffer.wrap(packed)) : null;
+    }
+
+    // Decodes from the buffer's position to its limit, which lets cold bodies
+    // be inflated straight out of a mapped segment.
+    public static String decode(ByteBuffer packed) {
+        if (!packed.hasRemaining()) return "";
+        byte tag = packed.get();
+        if (tag == RAW) {
+            return StandardCharsets.UTF_8.decode(packed).toString();
+        }
+
+        byte[] dictionary = null;
+        if (tag == DEFLATE_DICTIONARY) {
+            int id = packed.getInt();
+            dictionary = dictionaries.get(id);
+            if (dictionary == null) {
+                throw new IllegalStateException("Body dictionary " + Integer.toHexString(id) + " is not loaded");
+            }
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            int packedLength = packed.remaining();
+            inflater.setInput(packed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packedLength * 4);
+            byte[] buffer = new byte[Math.max(256, packedLength * 4)];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated message body");
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt message body: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Builds a dictionary from the segments that share the most substrings with
+    // the rest of the corpus: counts every GRAM-byte substring into a hashed
+    // table, then greedily takes the highest scoring SEGMENT-byte windows,
+    // zeroing the counts a chosen window covers so near-duplicates are not
+    // picked twice. Deflate reaches nearer entries more cheaply, so the best
+    // segments go at the end. Returns null when the corpus is too small.
+    public static byte[] train(Collection<String> bodies) {
+        ByteArrayOutputStream sample = new ByteArrayOutputStream();
+        for (String body : bodies) {
+            if (body == null) continue;
+            byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+            sample.write(utf8, 0, Math.min(utf8.length, MAX_TRAINING_BYTES - sample.size()));
+            if (sample.size() >= MAX_TRAINING_BYTES) break;
+        }
+        if (sample.size() < MIN_TRAINING_BYTES) return null;
+        byte[] corpus = sample.toByteArray();
+
+        int[] counts = new int[1 << TABLE_BITS];
+        for (int i = 0; i + GRAM <= corpus.length; i++) {
+            counts[gramHash(corpus, i)]++;
+        }
+
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int start = 0; start + SEGMENT <= corpus.length; start += SEGMENT / 2) {
+            candidates.add(new long[] { score(corpus, start, counts), start });
+        }
+
+        byte[][] chosen = new byte[DICTIONARY_SIZE / SEGMENT][];
+        int picked = 0;
+        while (picked < chosen.length && !candidates.isEmpty()) {
+            long[] top = candidates.poll();
+            int start = (int) top[1];
+            long fresh = score(corpus, start, counts);
+            if (fresh <= 0) continue;
+            if (!candidates.isEmpty() && fresh < candidates.peek()[0]) {
+                candidates.add(new long[] { fresh, start });
+                continue;
+            }
+            chosen[picked++] = Arrays.copyOfRange(corpus, start, start + SEGMENT);
+            for (int i = start; i + GRAM <= start + SEGMENT; i++) {
+                counts[gramHash(corpus, i)] = 0;
+            }
+        }
+        if (picked == 0) return null;
+
+        byte[] dictionary = new byte[picked * SEGMENT];
+        for (int i = 0; i < picked; i++) {
+            System.arraycopy(chosen[i], 0, dictionary, (picked - 1 - i) * SEGMENT, SEGMENT);
+        }
+        return dictionary;
+    }
+
+    // Only substrings seen more than once count towards a segment's score.
+    private static long score(byte[] corpus, int start, int[] counts) {
+        long score = 0;
+        for (int i = start; i + GRAM <= start + SEGMENT; i++) {
+            int count = counts[gramHash(corpus, i)];
+            if (count > 1) score += count;
+        }
+        return score;
+    }
+
+    private static int gramHash(byte[] data, int start) {
+        int h = 0x811C9DC5;
+        for (int i = start; i < start + GRAM; i++) {
+            h = (h ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return (h ^ (h >>> TABLE_BITS)) & ((1 << TABLE_BITS) - 1);
+    }
+}
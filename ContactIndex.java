@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Recipient lookup for the compose form. Every contact is filed under its
+// address, its full name and each word of its name, lower-cased, in one
+// sorted array, so the contacts matching a typed prefix are a binary search
+// and a scan of the entries that start with it. Matches are ranked by how
+// many messages the user has sent to the contact, then by name.
+public class ContactIndex {
+    public static final class Contact {
+        private final String name;
+        private final String address;
+        // Lower-cased name, for ranking ties.
+        private final String sortName;
+        private int sent;
+
+        Contact(String name, String address) {
+            this.name = name;
+            this.address = address;
+            this.sortName = (name != null) ? name.toLowerCase() : "";
+        }
+
+        public String getName() { return name; }
+        public String getAddress() { return address; }
+        public int getSent() { return sent; }
+
+        @Override
+        public String toString() {
+            return name + " <" + address + ">";
+        }
+    }
+
+    private static final Comparator<Contact> RANK = (a, b) -> (a.sent != b.sent)
+            ? Integer.compare(b.sent, a.sent) : a.sortName.compareTo(b.sortName);
+
+    private final Contact[] contacts;
+    private final Map<String, Contact> byAddress = new HashMap<>();
+    // Sorted lookup keys and the contact each one belongs to.
+    private final String[] keys;
+    private final int[] owners;
+    // Query stamp per contact, so a contact found under several keys is
+    // counted once without a set per lookup.
+    private final int[] seen;
+    private int stamp;
+    private Contact[] ranked;
+
+    // Contacts are every user but self; sent is the user's own sent mail.
+    public ContactIndex(List<User> users, String self, Collection<Email> sent) {
+        List<Contact> list = new ArrayList<>(users.size());
+        for (User user : users) {
+            String address = user.getEmailId();
+            if (address.equalsIgnoreCase(self) || byAddress.containsKey(address.toLowerCase())) continue;
+            Contact contact = new Contact(user.getName(), address);
+            list.add(contact);
+            byAddress.put(address.toLowerCase(), contact);
+        }
+        contacts = list.toArray(new Contact[0]);
+        seen = new int[contacts.length];
+        for (Email email : sent) {
+            for (String recipient : email.getTo()) {
+                Contact contact = byAddress.get(recipient.toLowerCase());
+                if (contact != null) contact.sent++;
+            }
+        }
+
+        List<Key> keyList = new ArrayList<>(contacts.length * 3);
+        for (int i = 0; i < contacts.length; i++) {
+            keyList.add(new Key(contacts[i].address.toLowerCase(), i));
+            String name = contacts[i].sortName.trim();
+            if (name.isEmpty()) continue;
+            keyList.add(new Key(name, i));
+            for (int space = name.indexOf(' '); space >= 0; space = name.indexOf(' ', space + 1)) {
+                if (space + 1 < name.length() && name.charAt(space + 1) != ' ') {
+                    keyList.add(new Key(name.substring(space + 1), i));
+                }
+            }
+        }
+        Key[] sorted = keyList.toArray(new Key[0]);
+        Arrays.sort(sorted, (a, b) -> a.text.compareTo(b.text));
+        keys = new String[sorted.length];
+        owners = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].text;
+            owners[i] = sorted[i].owner;
+        }
+    }
+
+    // Up to limit contacts with an address, name or name word starting with
+    // prefix, best ranked first.
+    public synchronized List<Contact> suggest(String prefix, int limit) {
+        List<Contact> result = new ArrayList<>(limit);
+        String key = prefix.trim().toLowerCase();
+        if (key.isEmpty() || limit <= 0) return result;
+
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        Contact[] best = new Contact[limit];
+        int count = 0;
+        for (int i = lowerBound(key); i < keys.length && keys[i].startsWith(key); i++) {
+            int owner = owners[i];
+            if (seen[owner] == stamp) continue;
+            seen[owner] = stamp;
+            Contact contact = contacts[owner];
+            if (count == limit && RANK.compare(contact, best[limit - 1]) >= 0) continue;
+            int at = (count < limit) ? count++ : limit - 1;
+            while (at > 0 && RANK.compare(contact, best[at - 1]) < 0) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = contact;
+        }
+        for (int i = 0; i < count; i++) {
+            result.add(best[i]);
+        }
+        return result;
+    }
+
+    // Every contact, best ranked first.
+    public synchronized Contact[] all() {
+        if (ranked == null) {
+            ranked = contacts.clone();
+            Arrays.sort(ranked, RANK);
+        }
+        return ranked;
+    }
+
+    public synchronized void recordSent(Collection<String> recipients) {
+        for (String recipient : recipients) {
+            Contact contact = byAddress.get(recipient.toLowerCase());
+            if (contact != null) {
+                contact.sent++;
+                ranked = null;
+            }
+        }
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Key {
+        final String text;
+        final int owner;
+
+        Key(String text, int owner) {
+            this.text = text;
+            this.owner = owner;
+        }
+    }
+}
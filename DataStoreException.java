@@ -0,0 +1,7 @@
+public class DataStoreException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DataStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fires scheduled sends and snoozed messages. Deadlines come from the store (the
+// sender copy's deferUntil, or the recipient's snooze time in MailboxState), so
+// the wheel is only an in-memory index and recover() can rebuild it at any time.
+// Timers are validated when they fire, which makes moving a message out of
+// SCHEDULED/SNOOZED an implicit cancel.
+public class DeferredMailQueue {
+    private static final long TICK_MS = 1000;
+    private static final int TICKS_PER_WHEEL = 4096;
+    // Failed deliveries are retried after 5s, 10s, 20s, 40s and 80s; a
+    // scheduled send that still fails goes back to the sender's drafts.
+    private static final long RETRY_DELAY_MS = 5000;
+    private static final int MAX_ATTEMPTS = 6;
+
+    // user is null for a scheduled send, otherwise the recipient who snoozed.
+    private static final class Entry {
+        final Email email;
+        final String user;
+
+        Entry(Email email, String user) {
+            this.email = email;
+            this.user = user;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return email == other.email && Objects.equals(user, other.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(email) * 31 + Objects.hashCode(user);
+        }
+    }
+
+    private final IDataManager dataManager;
+    private final OutboundQueue outboundQueue;
+    private final TimerWheel<Entry> wheel;
+    // Failed attempts so far, for entries waiting to be retried.
+    private final Map<Entry, Integer> failures = new ConcurrentHashMap<>();
+
+    public DeferredMailQueue(IDataManager dataManager, OutboundQueue outboundQueue) {
+        this.dataManager = dataManager;
+        this.outboundQueue = outboundQueue;
+        this.wheel = new TimerWheel<>("mailcm-deferred", TICK_MS, TICKS_PER_WHEEL, this::fire);
+    }
+
+    public void schedule(Email senderCopy) {
+        wheel.schedule(new Entry(senderCopy, null), senderCopy.getDeferUntil());
+    }
+
+    public void snooze(String user, Email copy, long until) {
+        wheel.schedule(new Entry(copy, user.toLowerCase()), until);
+    }
+
+    public void recover() {
+        wheel.cancelAll();
+        failures.clear();
+        for (Email email : dataManager.getEmails()) {
+            if (email.getStatus() == EmailStatus.SCHEDULED) {
+                schedule(email);
+            }
+        }
+        dataManager.getMailboxState().forEach((user, copy, status, read, deferUntil) -> {
+            if (status == EmailStatus.SNOOZED) {
+                snooze(user, copy, deferUntil);
+            }
+        });
+    }
+
+    public int size() {
+        return wheel.size();
+    }
+
+    private void fire(List<Entry> due) {
+        long now = System.currentTimeMillis();
+        MailboxState mailboxState = dataManager.getMailboxState();
+        Set<Entry> seen = new HashSet<>();
+        // The entries commit() acts on; stale and re-deferred ones are left out.
+        List<Entry> attempted = new ArrayList<>();
+        Map<String, List<Email>> woken = new LinkedHashMap<>();
+        List<Email> scheduled = new ArrayList<>();
+        for (Entry entry : due) {
+            if (!seen.add(entry)) continue;
+
+            if (entry.user == null) {
+                // Skip if re-deferred to a later time with its own timer.
+                if (entry.email.getStatus() == EmailStatus.SCHEDULED && entry.email.getDeferUntil() <= now) {
+                    scheduled.add(entry.email);
+                    attempted.add(entry);
+                }
+            } else if (mailboxState.getStatus(entry.user, entry.email) == EmailStatus.SNOOZED
+                    && mailboxState.getDeferUntil(entry.user, entry.email) <= now) {
+                woken.computeIfAbsent(entry.user, u -> new ArrayList<>()).add(entry.email);
+                attempted.add(entry);
+            }
+        }
+        if (woken.isEmpty() && scheduled.isEmpty()) return;
+
+        try {
+            commit(woken, scheduled);
+        } catch (DataStoreException e) {
+            retryLater(attempted, now, e);
+            return;
+        }
+        failures.keySet().removeAll(attempted);
+    }
+
+    private void retryLater(List<Entry> entries, long now, DataStoreException cause) {
+        List<Email> givenUp = new ArrayList<>();
+        for (Entry entry : entries) {
+            int attempts = failures.merge(entry, 1, Integer::sum);
+            if (attempts < MAX_ATTEMPTS) {
+                wheel.schedule(entry, now + (RETRY_DELAY_MS << (attempts - 1)));
+                continue;
+            }
+            failures.remove(entry);
+            if (entry.user == null) {
+                givenUp.add(entry.email);
+            }
+            // A snooze that cannot be woken is left SNOOZED; recover() arms
+            // it again on the next start.
+        }
+        // The last attempt can take a while to fail; a message sent or
+        // re-scheduled meanwhile stays where it is.
+        givenUp.removeIf(email -> email.getStatus() != EmailStatus.SCHEDULED || email.getDeferUntil() > now);
+        System.err.println("Deferred delivery failed, " + (givenUp.isEmpty() ? "retrying" : "moving "
+                + givenUp.size() + " scheduled message(s) back to drafts") + ": " + cause.getMessage());
+        if (givenUp.isEmpty()) return;
+
+        // Drop any recipient copy a failed attempt left behind, or it would
+        // be delivered after a restart.
+        List<Email> strays = new ArrayList<>();
+        for (Email senderCopy : givenUp) {
+            Email recipientCopy = findRecipientCopy(senderCopy.getMessageId());
+            if (recipientCopy != null && recipientCopy.getStatus() == EmailStatus.PENDING) {
+                strays.add(recipientCopy);
+            }
+        }
+        try {
+            if (!strays.isEmpty()) {
+                dataManager.deleteEmails(strays);
+            }
+            dataManager.moveEmails(givenUp, EmailStatus.DRAFT);
+        } catch (DataStoreException e) {
+            System.err.println("Could not move undelivered scheduled messages to drafts: " + e.getMessage());
+        }
+    }
+
+    private void commit(Map<String, List<Email>> woken, List<Email> scheduled) {
+        for (Map.Entry<String, List<Email>> entry : woken.entrySet()) {
+            dataManager.moveInMailbox(entry.getKey(), entry.getValue(), EmailStatus.INBOX, 0);
+        }
+
+        if (!scheduled.isEmpty()) {
+            List<Email> recipientCopies = new ArrayList<>();
+            for (Email senderCopy : scheduled) {
+                // A failed attempt may have stored the recipient copy before
+                // the sender copy could be moved; reuse it rather than
+                // adding a second one.
+                Email recipientCopy = findRecipientCopy(senderCopy.getMessageId());
+                if (recipientCopy == null) {
+                    recipientCopy = new Email(senderCopy.getMessageId(), senderCopy.getFrom(), senderCopy.getTo(),
+                            senderCopy.getContent(), EmailStatus.PENDING);
+                    dataManager.addEmail(recipientCopy);
+                }
+                if (recipientCopy.getStatus() == EmailStatus.PENDING) {
+                    recipientCopies.add(recipientCopy);
+                }
+            }
+            dataManager.moveEmails(scheduled, EmailStatus.SENT);
+            for (Email recipientCopy : recipientCopies) {
+                outboundQueue.enqueue(recipientCopy);
+            }
+        }
+    }
+
+    private Email findRecipientCopy(String messageId) {
+        for (Email copy : dataManager.getThreadIndex().copies(messageId)) {
+            if (copy.getStatus() == EmailStatus.PENDING || copy.getStatus() == EmailStatus.DELIVERED) {
+                return copy;
+            }
+        }
+        return null;
+    }
+}
@@ -1,67 +1,167 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.UUID;
 
 enum EmailStatus {
-    INBOX, ARCHIVED, DELETED, DRAFT, SENT 
+    INBOX, ARCHIVED, DELETED, DRAFT, SENT, PENDING, SCHEDULED, SNOOZED, DELIVERED
 }
 
 enum ViewType {
-    INBOX, DRAFTS, SENT, ARCHIVE, DELETED, SETTINGS
+    INBOX, DRAFTS, SENT, ARCHIVE, DELETED, SCHEDULED, SNOOZED, SETTINGS
 }
 
+// Addresses are held as AddressTable ids; emails.db still stores them as
+// strings, under the field names they had before.
 public class Email implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int[] NO_RECIPIENTS = new int[0];
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("messageId", String.class),
+        new ObjectStreamField("from", String.class),
+        new ObjectStreamField("to", List.class),
+        new ObjectStreamField("content", MessageContent.class),
+        new ObjectStreamField("timestamp", long.class),
+        new ObjectStreamField("isRead", boolean.class),
+        new ObjectStreamField("status", EmailStatus.class),
+        new ObjectStreamField("rowId", long.class),
+        new ObjectStreamField("deferUntil", long.class),
+    };
+
     String messageId;
-    String from;
-    List<String> to;
-    String subject;
-    String body;
-    List<String> attachmentPaths; 
+    private int from;
+    private int[] to;
+    MessageContent content;
     long timestamp;
     boolean isRead;
     EmailStatus status; 
+    long rowId;
+    long deferUntil;
+    // Row in the manager's HeaderStore plus one; 0 while not indexed.
+    transient int headerRow;
 
     public Email(String from, List<String> to, String subject, String body, List<String> attachmentPaths, EmailStatus status) {
-        this.messageId = UUID.randomUUID().toString();
-        this.from = from;
-        this.to = to;
-        this.subject = subject;
-        this.body = body;
-        this.attachmentPaths = (attachmentPaths != null) ? attachmentPaths : new ArrayList<>(); 
-        this.timestamp = System.currentTimeMillis();
-        this.isRead = (status == EmailStatus.DRAFT || status == EmailStatus.SENT);
-        this.status = status;
+        this(UUID.randomUUID().toString(), from, to, new MessageContent(subject, body, attachmentPaths), status);
     }
     
     public Email(String messageId, String from, List<String> to, String subject, String body, List<String> attachmentPaths, EmailStatus status) {
+        this(messageId, from, to, new MessageContent(subject, body, attachmentPaths), status);
+    }
+
+    public Email(String messageId, String from, List<String> to, MessageContent content, EmailStatus status) {
         this.messageId = messageId;
-        this.from = from;
-        this.to = to;
-        this.subject = subject;
-        this.body = body;
-        this.attachmentPaths = (attachmentPaths != null) ? attachmentPaths : new ArrayList<>(); 
+        this.from = internAddress(from);
+        this.to = internAddresses(to);
+        this.content = content;
         this.timestamp = System.currentTimeMillis();
         this.isRead = (status == EmailStatus.DRAFT || status == EmailStatus.SENT);
         this.status = status;
     }
 
     public String getMessageId() { return messageId; }
-    public List<String> getTo() { return to; }
-    public String getFrom() { return from; }
-    public String getSubject() { return subject; }
-    public String getBody() { return body; }
+    public List<String> getTo() { return new AddressList(to); }
+    public String getFrom() { return (from >= 0) ? AddressTable.address(from) : null; }
+    public MessageContent getContent() { return content; }
+    public String getSubject() { return content.getSubject(); }
+    public String getBody() { return content.getBody(); }
     public long getTimestamp() { return timestamp; }
     public boolean isRead() { return isRead; }
     public EmailStatus getStatus() { return status; }
-    public List<String> getAttachmentPaths() { return attachmentPaths; } 
+    public List<String> getAttachmentPaths() { return content.getAttachmentPaths(); } 
+    public long getDeferUntil() { return deferUntil; }
 
     public void setRead(boolean read) { isRead = read; }
     public void setStatus(EmailStatus status) { this.status = status; }
 
+    void setTo(List<String> recipients) { to = internAddresses(recipients); }
+
+    // Case-folded AddressTable id of the sender, or -1.
+    public int getFromId() { return (from >= 0) ? AddressTable.folded(from) : -1; }
+
     public boolean isRecipient(String userEmail) {
-        return to.stream().anyMatch(addr -> addr.equalsIgnoreCase(userEmail));
+        return isRecipient(AddressTable.find(userEmail));
+    }
+
+    // Takes the user's case-folded id from AddressTable.find, so a loop over
+    // many emails resolves the address once.
+    public boolean isRecipient(int user) {
+        if (user < 0) return false;
+        for (int recipient : to) {
+            if (AddressTable.folded(recipient) == user) return true;
+        }
+        return false;
+    }
+
+    private static int internAddress(String address) {
+        return (address != null) ? AddressTable.intern(address) : -1;
+    }
+
+    private static int[] internAddresses(List<String> addresses) {
+        if (addresses == null || addresses.isEmpty()) return NO_RECIPIENTS;
+        int[] ids = new int[addresses.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = AddressTable.intern(addresses.get(i));
+        }
+        return ids;
+    }
+
+    // Read-only view of recipient ids as addresses.
+    private static final class AddressList extends AbstractList<String> implements RandomAccess {
+        private final int[] ids;
+
+        AddressList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            return AddressTable.address(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("messageId", messageId);
+        fields.put("from", getFrom());
+        fields.put("to", new ArrayList<>(getTo()));
+        fields.put("content", content);
+        fields.put("timestamp", timestamp);
+        fields.put("isRead", isRead);
+        fields.put("status", status);
+        fields.put("rowId", rowId);
+        fields.put("deferUntil", deferUntil);
+        out.writeFields();
+    }
+
+    // emails.db files written before MessageContent existed carry subject, body
+    // and attachmentPaths inline on every copy.
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        messageId = (String) fields.get("messageId", null);
+        from = internAddress((String) fields.get("from", null));
+        to = internAddresses((List<String>) fields.get("to", null));
+        content = (MessageContent) fields.get("content", null);
+        if (content == null) {
+            content = new MessageContent((String) fields.get("subject", null), (String) fields.get("body", null),
+                    (List<String>) fields.get("attachmentPaths", null));
+        }
+        timestamp = fields.get("timestamp", 0L);
+        isRead = fields.get("isRead", false);
+        status = (EmailStatus) fields.get("status", null);
+        rowId = fields.get("rowId", 0L);
+        deferUntil = fields.get("deferUntil", 0L);
     }
 
 }
@@ -1,25 +1,42 @@
 import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.plaf.basic.BasicHTML;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumnModel;
 
 public class EmailClient extends JFrame {
@@ -27,11 +44,19 @@ public class EmailClient extends JFrame {
     public static final String APP_NAME = "Mail.CM";
     public static final String DOMAIN = "@mail.cm";
     public static final int UNSEND_TIMEOUT_MS = 60000;
+    // Bodies of mail older than this are moved out of the heap into cold segments.
+    public static final long HOT_WINDOW_MS = 30L * 24 * 60 * 60 * 1000;
 
     private final CardLayout cardLayout;
     private final JPanel mainPanel;
     
     public final IDataManager dataManager;
+    public final AsyncDataManager asyncDataManager;
+    public final OutboundQueue outboundQueue;
+    public final DeferredMailQueue deferredMailQueue;
+    public final AttachmentPreviews attachmentPreviews;
+    public final TieringEngine tieringEngine;
+    public final ViewCache viewCache = new ViewCache();
     
     private User loggedInUser;
 
@@ -50,6 +75,12 @@ public class EmailClient extends JFrame {
             tempManager = new FileDataManager();
         }
         this.dataManager = tempManager;
+        this.asyncDataManager = new AsyncDataManager(dataManager);
+        this.outboundQueue = new OutboundQueue(dataManager, UNSEND_TIMEOUT_MS);
+        this.deferredMailQueue = new DeferredMailQueue(dataManager, outboundQueue);
+        this.attachmentPreviews = new AttachmentPreviews(dataManager.getAttachmentStore());
+        this.tieringEngine = new TieringEngine(dataManager, HOT_WINDOW_MS);
+        recoverQueues();
 
         setTitle(APP_NAME);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -80,6 +111,31 @@ public class EmailClient extends JFrame {
         return dataManager;
     }
 
+    public AsyncDataManager getAsyncDataManager() {
+        return asyncDataManager;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public DeferredMailQueue getDeferredMailQueue() {
+        return deferredMailQueue;
+    }
+
+    public AttachmentPreviews getAttachmentPreviews() {
+        return attachmentPreviews;
+    }
+
+    public ViewCache getViewCache() {
+        return viewCache;
+    }
+
+    public void recoverQueues() {
+        outboundQueue.recover();
+        deferredMailQueue.recover();
+    }
+
     public void showWelcome() {
         setTitle(APP_NAME);
         cardLayout.show(mainPanel, "Welcome");
@@ -105,6 +161,9 @@ public class EmailClient extends JFrame {
         this.loggedInUser = user;
         setTitle(APP_NAME + " - " + user.getEmailId());
 
+        if (mailboxPanel != null) {
+            mailboxPanel.close();
+        }
         mailboxPanel = new MailboxPanel(this, dataManager, user);
 
         if (mainPanel.getComponents().length > 3) {
@@ -116,6 +175,9 @@ public class EmailClient extends JFrame {
     }
 
     public void logout() {
+        if (mailboxPanel != null) {
+            mailboxPanel.close();
+        }
         this.loggedInUser = null;
         showWelcome();
     }
@@ -197,14 +259,25 @@ public class EmailClient extends JFrame {
         private MailListPanel draftListPanel;
         private SentListPanel sentListPanel;
         private MailListPanel archiveListPanel;
+        private MailListPanel scheduledListPanel;
+        private MailListPanel snoozedListPanel;
         private TrashPanel trashListPanel;
         private ComposePanel composePanel;
         private SettingsPanel settingsPanel;
 
         private JSplitPane mainSplitPane;
         private final int EXPANDED_WIDTH = 240;
+        private final MailEventBus.Listener mailListener = event -> SwingUtilities.invokeLater(() -> applyMailEvent(event));
         private String currentView = "INBOX";
 
+        // Emails opened but not yet marked read in the store. They are written
+        // in one batch a moment later, so stepping through a folder with the
+        // arrow keys costs one write rather than one per row.
+        private static final int READ_FLUSH_MS = 500;
+        private final Set<Email> unsavedRead = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Email> queuedRead = new ArrayList<>();
+        private final Timer readFlushTimer = new Timer(READ_FLUSH_MS, e -> flushRead());
+
         public MailboxPanel(EmailClient client, IDataManager dataManager, User user) {
             this.client = client;
             this.dataManager = dataManager;
@@ -223,6 +296,8 @@ public class EmailClient extends JFrame {
             draftListPanel = new MailListPanel(this, client, ViewType.DRAFTS);
             sentListPanel = new SentListPanel(this, client);
             archiveListPanel = new MailListPanel(this, client, ViewType.ARCHIVE);
+            scheduledListPanel = new MailListPanel(this, client, ViewType.SCHEDULED);
+            snoozedListPanel = new MailListPanel(this, client, ViewType.SNOOZED);
             trashListPanel = new TrashPanel(this, client);
             composePanel = new ComposePanel(this, client);
             settingsPanel = new SettingsPanel(this, client);
@@ -231,6 +306,8 @@ public class EmailClient extends JFrame {
             contentCardPanel.add(draftListPanel, "DRAFTS");
             contentCardPanel.add(sentListPanel, "SENT");
             contentCardPanel.add(archiveListPanel, "ARCHIVE");
+            contentCardPanel.add(scheduledListPanel, "SCHEDULED");
+            contentCardPanel.add(snoozedListPanel, "SNOOZED");
             contentCardPanel.add(trashListPanel, "DELETED");
             contentCardPanel.add(composePanel, "COMPOSE");
             contentCardPanel.add(settingsPanel, "SETTINGS");
@@ -244,6 +321,58 @@ public class EmailClient extends JFrame {
 
             refreshAllViews();
             showView("INBOX");
+            readFlushTimer.setRepeats(false);
+            dataManager.getEventBus().subscribe(mailListener);
+        }
+
+        public void close() {
+            flushRead();
+            dataManager.getEventBus().unsubscribe(mailListener);
+        }
+
+        public void markReadLater(Email email) {
+            if (!unsavedRead.add(email)) return;
+            queuedRead.add(email);
+            if (!readFlushTimer.isRunning()) {
+                readFlushTimer.start();
+            }
+        }
+
+        // True until the batch holding the email has been written.
+        public boolean isReadPending(Email email) {
+            return unsavedRead.contains(email);
+        }
+
+        private void flushRead() {
+            readFlushTimer.stop();
+            if (queuedRead.isEmpty()) return;
+            List<Email> batch = new ArrayList<>(queuedRead);
+            queuedRead.clear();
+            reportFailure(getAsyncDataManager().markRead(user.getEmailId(), batch, true)).thenRun(() -> {
+                for (Email email : batch) {
+                    unsavedRead.remove(email);
+                }
+            });
+        }
+
+        // Views follow the data layer's changes row by row; only a reload
+        // rebuilds them.
+        private void applyMailEvent(MailEvent event) {
+            switch (event.getType()) {
+                case RELOADED:
+                    refreshAllViews();
+                    break;
+                case USER_ADDED:
+                case USER_REMOVED:
+                    composePanel.contactsChanged();
+                    break;
+                default:
+                    if (!event.concerns(user.getEmailId())) return;
+                    for (MailListPanel panel : Arrays.asList(inboxListPanel, draftListPanel, sentListPanel,
+                            archiveListPanel, scheduledListPanel, snoozedListPanel, trashListPanel)) {
+                        panel.apply(event);
+                    }
+            }
         }
 
         private JPanel createHeaderPanel(EmailClient client) {
@@ -298,6 +427,8 @@ public class EmailClient extends JFrame {
             sidebar.add(createNavLink("Inbox", "INBOX"));
             sidebar.add(createNavLink("Drafts", "DRAFTS"));
             sidebar.add(createNavLink("Sent", "SENT"));
+            sidebar.add(createNavLink("Scheduled", "SCHEDULED"));
+            sidebar.add(createNavLink("Snoozed", "SNOOZED"));
             sidebar.add(createNavLink("Archive", "ARCHIVE"));
             sidebar.add(createNavLink("Trash", "DELETED"));
 
@@ -352,6 +483,10 @@ public class EmailClient extends JFrame {
                 sentListPanel.refresh();
             else if (viewName.equals("ARCHIVE"))
                 archiveListPanel.refresh();
+            else if (viewName.equals("SCHEDULED"))
+                scheduledListPanel.refresh();
+            else if (viewName.equals("SNOOZED"))
+                snoozedListPanel.refresh();
             else if (viewName.equals("DELETED"))
                 trashListPanel.refresh();
             else if (viewName.equals("SETTINGS"))
@@ -364,11 +499,25 @@ public class EmailClient extends JFrame {
             mainSplitPane.repaint();
         }
 
+        // Views pick up the write through its MailEvents; this only reports a
+        // failed write.
+        public CompletableFuture<Void> reportFailure(CompletableFuture<?> pendingWrite) {
+            return pendingWrite.handleAsync((v, ex) -> {
+                if (ex != null) {
+                    Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(this, cause.getMessage(), "Storage Error", JOptionPane.ERROR_MESSAGE);
+                }
+                return null;
+            }, AsyncDataManager.EDT);
+        }
+
         public void refreshAllViews() {
             inboxListPanel.refresh();
             draftListPanel.refresh();
             sentListPanel.refresh();
             archiveListPanel.refresh();
+            scheduledListPanel.refresh();
+            snoozedListPanel.refresh();
             trashListPanel.refresh();
         }
 
@@ -380,6 +529,26 @@ public class EmailClient extends JFrame {
             return dataManager;
         }
 
+        public AsyncDataManager getAsyncDataManager() {
+            return client.getAsyncDataManager();
+        }
+
+        public OutboundQueue getOutboundQueue() {
+            return client.getOutboundQueue();
+        }
+
+        public DeferredMailQueue getDeferredMailQueue() {
+            return client.getDeferredMailQueue();
+        }
+
+        public AttachmentPreviews getAttachmentPreviews() {
+            return client.getAttachmentPreviews();
+        }
+
+        public ViewCache getViewCache() {
+            return client.getViewCache();
+        }
+
         public ComposePanel getComposePanel() {
             return composePanel;
         }
@@ -391,24 +560,54 @@ public class EmailClient extends JFrame {
         protected final ViewType viewType;
         protected final CustomTableModel tableModel;
         protected JTable emailTable;
-        protected JTextArea emailView;
+        protected JScrollPane tableScrollPane;
+        protected MessageViewer emailView;
         protected JSplitPane splitPane;
 
         protected JButton refreshButton;
         protected JButton deleteButton;
         protected JButton archiveButton;
         protected JButton unarchiveButton;
+        protected JButton snoozeButton;
+        protected JButton unsnoozeButton;
+        protected JButton unscheduleButton;
+        protected JButton conversationButton;
 
         protected JCheckBox masterCheckBox;
         protected JPanel attachmentPanel;
         protected JScrollPane attachmentScrollPane;
+        private final List<CompletableFuture<BufferedImage>> pendingPreviews = new ArrayList<>();
+        // A selection made while the view is idle is shown at once; any made
+        // within SELECTION_SETTLE_MS of it only restart the timer, and the one
+        // left when it fires is shown. Holding an arrow key moves the highlight
+        // without opening every email it passes.
+        private static final int SELECTION_SETTLE_MS = 120;
+        private final Timer selectionTimer = new Timer(SELECTION_SETTLE_MS, e -> selectionSettled());
+        private boolean selectionChanged;
 
         protected Email currentSelectedEmail;
+        // Email whose conversation the table lists instead of the folder, or null.
+        private Email conversationOf;
         protected JPanel emailViewActionsPanel;
         protected JButton replyButton;
         protected JButton forwardButton;
 
         public static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MMM d, HH:mm");
+        private static final Color SELECTED_BACKGROUND = new Color(210, 230, 255);
+        // Rows built on refresh; the rest are added as the table is scrolled.
+        private static final int FIRST_PAGE_ROWS = 100;
+        private static final int PAGE_ROWS = 500;
+        private static final int BULK_REMOVE_ROWS = 64;
+        private static final String SORT_NEWEST_FIRST = "date-desc";
+        protected NewestFirstPager pager;
+        private boolean pageQueued;
+        // Emails with a row, and emails that arrived older than the last
+        // loaded row while more pages remain.
+        private final Set<Email> shown = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Email> arrivedBelow = new ArrayList<>();
+        // Header clicks re-page the folder in the chosen column's order.
+        private PagedRowSorter<CustomTableModel> rowSorter;
+        private boolean restartPaging;
 
         public MailListPanel(MailboxPanel parentPanel, EmailClient client, ViewType viewType) {
             this.parentPanel = parentPanel;
@@ -417,7 +616,8 @@ public class EmailClient extends JFrame {
 
             setLayout(new BorderLayout());
 
-            String fromToColumnLabel = (viewType == ViewType.SENT || viewType == ViewType.DRAFTS) ? "To" : "From";
+            String fromToColumnLabel = (viewType == ViewType.SENT || viewType == ViewType.DRAFTS
+                    || viewType == ViewType.SCHEDULED) ? "To" : "From";
             String[] columnNames = { "", "S", fromToColumnLabel, "Subject", "Date" };
 
             tableModel = new CustomTableModel(columnNames);
@@ -425,7 +625,9 @@ public class EmailClient extends JFrame {
 
             emailTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
             emailTable.setRowHeight(25);
-            emailTable.setAutoCreateRowSorter(true);
+            rowSorter = new PagedRowSorter<>(tableModel, this::sortChanged);
+            rowSorter.setSortable(0, false);
+            emailTable.setRowSorter(rowSorter);
             emailTable.setFont(new Font("SansSerif", Font.PLAIN, 12));
 
             TableColumnModel tcm = emailTable.getColumnModel();
@@ -437,36 +639,39 @@ public class EmailClient extends JFrame {
 
             tcm.removeColumn(tcm.getColumn(5));
 
-            emailTable.setDefaultRenderer(Object.class, new TableCellRenderer() {
-                private final DefaultTableCellRenderer defaultRenderer = new DefaultTableCellRenderer();
+            // Paints without allocating: fonts are derived once per table font,
+            // and the unread flag comes from the model instead of the mailbox.
+            emailTable.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+                private Font tableFont;
+                private Font plainFont;
+                private Font boldFont;
 
                 @Override
                 public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
                         boolean hasFocus, int row, int column) {
-                    Component cell = defaultRenderer.getTableCellRendererComponent(table, value, isSelected, hasFocus,
-                            row, column);
-
-                    if (row >= 0 && row < table.getRowCount()) {
-                        int modelRow = table.convertRowIndexToModel(row);
-
-                        if (modelRow >= 0 && modelRow < table.getModel().getRowCount()) {
-                            Email email = (Email) table.getModel().getValueAt(modelRow, 5);
-
-                            if (email != null && column > 1) {
-                                Font font = email.isRead() ? defaultRenderer.getFont().deriveFont(Font.PLAIN)
-                                        : defaultRenderer.getFont().deriveFont(Font.BOLD);
-                                cell.setFont(font);
-                            }
-                        }
+                    super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+                    if (table.getFont() != tableFont) {
+                        tableFont = table.getFont();
+                        plainFont = tableFont.deriveFont(Font.PLAIN);
+                        boldFont = tableFont.deriveFont(Font.BOLD);
                     }
 
-                    if (isSelected) {
-                        cell.setBackground(new Color(210, 230, 255));
-                    } else {
-                        cell.setBackground(Color.WHITE);
-                    }
+                    boolean unread = column > 1 && row >= 0 && row < table.getRowCount()
+                            && tableModel.isUnread(table.convertRowIndexToModel(row));
+                    setFont(unread ? boldFont : plainFont);
+                    setBackground(isSelected ? SELECTED_BACKGROUND : Color.WHITE);
+                    return this;
+                }
 
-                    return cell;
+                // The label UI only needs to hear about HTML text; for plain text
+                // the event would be garbage made for every painted cell.
+                @Override
+                protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+                    if ("text".equals(propertyName) && !BasicHTML.isHTMLString((String) oldValue)
+                            && !BasicHTML.isHTMLString((String) newValue)) {
+                        return;
+                    }
+                    super.firePropertyChange(propertyName, oldValue, newValue);
                 }
             });
 
@@ -477,7 +682,23 @@ public class EmailClient extends JFrame {
                 }
             });
             emailTable.getModel().addTableModelListener(e -> updateControlsVisibility());
-            emailTable.getSelectionModel().addListSelectionListener(e -> displaySelectedEmail());
+            selectionTimer.setRepeats(false);
+            emailTable.getSelectionModel().addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) selectionChanged();
+            });
+            emailTable.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2 && viewType == ViewType.DRAFTS) {
+                        int row = emailTable.rowAtPoint(e.getPoint());
+                        if (row >= 0) {
+                            int draftModelRow = emailTable.convertRowIndexToModel(row);
+                            Email selectedDraft = (Email) tableModel.getValueAt(draftModelRow, 5);
+                            parentPanel.getComposePanel().loadDraft(selectedDraft);
+                        }
+                    }
+                }
+            });
 
             JPanel emailViewContainer = new JPanel(new BorderLayout());
 
@@ -503,26 +724,26 @@ public class EmailClient extends JFrame {
             emailViewActionsPanel.setVisible(false);
             emailViewContainer.add(emailViewActionsPanel, BorderLayout.NORTH);
 
-            emailView = new JTextArea("Select an email to view its content.");
-            emailView.setEditable(false);
-            emailView.setWrapStyleWord(true);
-            emailView.setLineWrap(true);
-            emailView.setBorder(new EmptyBorder(10, 10, 10, 10));
-            emailViewContainer.add(new JScrollPane(emailView), BorderLayout.CENTER);
+            emailView = new MessageViewer();
+            emailView.showText("Select an email to view its content.");
+            emailViewContainer.add(emailView, BorderLayout.CENTER);
 
             attachmentPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
             attachmentPanel.setBackground(Color.WHITE);
 
             attachmentScrollPane = new JScrollPane(attachmentPanel);
             attachmentScrollPane.setBorder(BorderFactory.createTitledBorder("Attachments"));
-            attachmentScrollPane.setPreferredSize(new Dimension(100, 120));
+            attachmentScrollPane.setPreferredSize(new Dimension(100, AttachmentPreviews.HEIGHT + 80));
             attachmentScrollPane.setVisible(false);
 
             emailViewContainer.add(attachmentScrollPane, BorderLayout.SOUTH);
 
             JPanel controlsPanel = createControlsPanel();
 
-            splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(emailTable), emailViewContainer);
+            tableScrollPane = new JScrollPane(emailTable);
+            tableScrollPane.getVerticalScrollBar().getModel().addChangeListener(e -> loadMoreIfNearEnd());
+
+            splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, tableScrollPane, emailViewContainer);
             splitPane.setDividerLocation(650);
             splitPane.setBorder(null);
 
@@ -530,12 +751,64 @@ public class EmailClient extends JFrame {
             add(splitPane, BorderLayout.CENTER);
         }
 
+        // Keeps one unread bit per row, taken from isReadByMe when the row is
+        // added or replaced, so painting never asks the mailbox.
         protected class CustomTableModel extends DefaultTableModel {
+            private final BitSet unread = new BitSet();
+
             public CustomTableModel(Object[] columnNames) {
                 super(columnNames, 0);
                 addColumn("HiddenData");
             }
 
+            public boolean isUnread(int row) {
+                return unread.get(row);
+            }
+
+            private boolean unreadAt(int row) {
+                Email email = (Email) getValueAt(row, 5);
+                return email != null && !isReadByMe(email);
+            }
+
+            // Moves the bits from row on by one place, up for an insert or down
+            // for a removal.
+            private void shiftUnread(int row, boolean insert) {
+                int size = getRowCount();
+                BitSet tail = unread.get(insert ? row : row + 1, size);
+                unread.clear(row, size + 1);
+                int base = insert ? row + 1 : row;
+                for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+                    unread.set(base + i);
+                }
+            }
+
+            @Override
+            @SuppressWarnings({ "rawtypes", "unchecked" })
+            public void insertRow(int row, Vector rowData) {
+                shiftUnread(row, true);
+                Object email = (rowData.size() > 5) ? rowData.get(5) : null;
+                unread.set(row, email instanceof Email && !isReadByMe((Email) email));
+                super.insertRow(row, rowData);
+            }
+
+            @Override
+            public void removeRow(int row) {
+                shiftUnread(row, false);
+                super.removeRow(row);
+            }
+
+            @Override
+            public void setNumRows(int rowCount) {
+                unread.clear(Math.min(rowCount, getRowCount()), Math.max(rowCount, getRowCount()));
+                super.setNumRows(rowCount);
+            }
+
+            // Shows the row as read before the mailbox has recorded it.
+            public void markRead(int row) {
+                unread.clear(row);
+                setValueAt("", row, 1);
+            }
+
             @Override
             public Class<?> getColumnClass(int columnIndex) {
                 if (columnIndex == 0)
@@ -558,6 +831,46 @@ public class EmailClient extends JFrame {
                 }
                 return super.getValueAt(row, column);
             }
+
+            // Replaces a row's values, keeping its checkbox.
+            public void updateRow(int row, Object[] values) {
+                values[0] = getValueAt(row, 0);
+                dataVector.set(row, convertToVector(values));
+                unread.set(row, unreadAt(row));
+                fireTableRowsUpdated(row, row);
+            }
+
+            // Removes rows given in increasing order. A large batch is removed in
+            // one pass with a single event instead of one shift and event per row.
+            public void removeRows(List<Integer> rows) {
+                if (rows.size() <= BULK_REMOVE_ROWS) {
+                    for (int i = rows.size() - 1; i >= 0; i--) {
+                        removeRow(rows.get(i));
+                    }
+                    return;
+                }
+                Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (int row : rows) {
+                    removed.add(dataVector.get(row));
+                }
+                dataVector.removeIf(removed::contains);
+                unread.clear();
+                for (int row = 0; row < getRowCount(); row++) {
+                    unread.set(row, unreadAt(row));
+                }
+                fireTableDataChanged();
+            }
+
+            // Appends rows with a single insert event.
+            public void addRows(List<Object[]> rows) {
+                if (rows.isEmpty()) return;
+                int first = getRowCount();
+                for (Object[] row : rows) {
+                    dataVector.add(convertToVector(row));
+                    unread.set(getRowCount() - 1, unreadAt(getRowCount() - 1));
+                }
+                fireTableRowsInserted(first, getRowCount() - 1);
+            }
         }
 
         protected void updateMasterCheckboxState() {
@@ -578,6 +891,9 @@ public class EmailClient extends JFrame {
         }
 
         protected void toggleAllSelection(boolean select) {
+            if (select && pager != null) {
+                appendRows(pager.size());
+            }
             for (int i = 0; i < tableModel.getRowCount(); i++) {
                 tableModel.setValueAt(select, i, 0);
             }
@@ -591,7 +907,7 @@ public class EmailClient extends JFrame {
                 deleteButton.setVisible(selectedByCheckbox);
                 if (viewType == ViewType.DELETED) {
                     deleteButton.setText("Delete Selected Forever");
-                } else if (viewType == ViewType.DRAFTS) {
+                } else if (viewType == ViewType.DRAFTS || viewType == ViewType.SCHEDULED) {
                     deleteButton.setText("Discard Selected Drafts");
                 } else if (viewType == ViewType.SENT) {
                     deleteButton.setText("Delete Selected");
@@ -605,6 +921,15 @@ public class EmailClient extends JFrame {
             if (unarchiveButton != null) {
                 unarchiveButton.setVisible(selectedByCheckbox && viewType == ViewType.ARCHIVE);
             }
+            if (snoozeButton != null) {
+                snoozeButton.setVisible(selectedByCheckbox);
+            }
+            if (unsnoozeButton != null) {
+                unsnoozeButton.setVisible(selectedByCheckbox);
+            }
+            if (unscheduleButton != null) {
+                unscheduleButton.setVisible(selectedByCheckbox);
+            }
         }
 
         protected JPanel createControlsPanel() {
@@ -623,20 +948,10 @@ public class EmailClient extends JFrame {
                     refreshButton.setEnabled(false);
                     refreshButton.setText("Refreshing...");
                     
-                    new SwingWorker<Void, Void>() {
-                        @Override
-                        protected Void doInBackground() throws Exception {
-                            parentPanel.getDataManager().reloadData();
-                            return null;
-                        }
-
-                        @Override
-                        protected void done() {
-                            parentPanel.refreshAllViews();
-                            refreshButton.setEnabled(true);
-                            refreshButton.setText("Refresh");
-                        }
-                    }.execute();
+                    parentPanel.reportFailure(parentPanel.getAsyncDataManager().reload().thenRun(client::recoverQueues)).thenRun(() -> {
+                        refreshButton.setEnabled(true);
+                        refreshButton.setText("Refresh");
+                    });
                 });
                 controlsPanel.add(refreshButton);
             }
@@ -647,15 +962,37 @@ public class EmailClient extends JFrame {
                 controlsPanel.add(archiveButton);
             }
 
+            if (viewType == ViewType.INBOX) {
+                snoozeButton = client.createStyledButton("Snooze Selected", new Color(200, 220, 255), Color.BLACK);
+                snoozeButton.addActionListener(e -> showSnoozeMenu(snoozeButton));
+                controlsPanel.add(snoozeButton);
+            }
+
             if (viewType == ViewType.ARCHIVE) {
                 unarchiveButton = client.createStyledButton("Unarchive Selected", new Color(66, 133, 244), Color.BLACK);
                 unarchiveButton.addActionListener(e -> unarchiveSelectedEmails());
                 controlsPanel.add(unarchiveButton);
             }
 
+            if (viewType == ViewType.SNOOZED) {
+                unsnoozeButton = client.createStyledButton("Unsnooze Selected", new Color(66, 133, 244), Color.BLACK);
+                unsnoozeButton.addActionListener(e -> moveSelectedEmails(EmailStatus.INBOX));
+                controlsPanel.add(unsnoozeButton);
+            }
+
+            if (viewType == ViewType.SCHEDULED) {
+                unscheduleButton = client.createStyledButton("Move to Drafts", new Color(66, 133, 244), Color.BLACK);
+                unscheduleButton.addActionListener(e -> moveSelectedEmails(EmailStatus.DRAFT));
+                controlsPanel.add(unscheduleButton);
+            }
+
+            if (showsConversations()) {
+                controlsPanel.add(createConversationButton());
+            }
+
             deleteButton = client.createStyledButton("Delete Selected", new Color(219, 68, 55), Color.BLACK);
             deleteButton.addActionListener(e -> {
-                if (viewType == ViewType.INBOX || viewType == ViewType.ARCHIVE) {
+                if (viewType == ViewType.INBOX || viewType == ViewType.ARCHIVE || viewType == ViewType.SNOOZED) {
                     moveSelectedEmails(EmailStatus.DELETED);
                 } else {
                     deleteSelectedEmails(true);
@@ -669,62 +1006,91 @@ public class EmailClient extends JFrame {
             return controlsPanel;
         }
 
+        protected boolean showsConversations() {
+            return viewType == ViewType.INBOX || viewType == ViewType.SENT || viewType == ViewType.ARCHIVE;
+        }
+
+        protected JButton createConversationButton() {
+            conversationButton = client.createStyledButton("Conversation", new Color(200, 220, 255), Color.BLACK);
+            conversationButton.addActionListener(e -> {
+                conversationOf = (conversationOf == null) ? currentSelectedEmail : null;
+                refresh();
+                updateConversationButton();
+            });
+            conversationButton.setVisible(false);
+            return conversationButton;
+        }
+
+        private void updateConversationButton() {
+            if (conversationButton == null) return;
+            if (conversationOf != null) {
+                String folder = viewType.name().charAt(0) + viewType.name().substring(1).toLowerCase();
+                conversationButton.setText("Back to " + folder);
+                conversationButton.setVisible(true);
+                return;
+            }
+            int size = (currentSelectedEmail != null) ? conversation(currentSelectedEmail).size() : 0;
+            conversationButton.setText("Conversation (" + size + ")");
+            conversationButton.setVisible(size > 1);
+        }
+
+        // The user's copies of the messages in the email's conversation that
+        // are in their INBOX, SENT or ARCHIVE, in no particular order.
+        protected List<Email> conversation(Email email) {
+            List<Email> copies = new ArrayList<>();
+            for (Email copy : parentPanel.getDataManager().getThreadIndex().conversation(email)) {
+                if (inConversationFolder(copy)) {
+                    copies.add(copy);
+                }
+            }
+            return copies;
+        }
+
+        private boolean inConversationFolder(Email email) {
+            IDataManager dataManager = parentPanel.getDataManager();
+            if (isReceived(email)) {
+                EmailStatus status = dataManager.getMailboxState().getStatus(myEmail(), email);
+                return status == EmailStatus.INBOX || status == EmailStatus.ARCHIVED;
+            }
+            return (email.getStatus() == EmailStatus.SENT || email.getStatus() == EmailStatus.ARCHIVED)
+                    && email.getFrom().equalsIgnoreCase(myEmail()) && dataManager.getHeaderStore().contains(email);
+        }
+
         public void refresh() {
             String selectedEmailId = null;
             if (currentSelectedEmail != null) {
                 selectedEmailId = currentSelectedEmail.getMessageId();
             }
 
+            // Keep as many rows as were showing, so the scroll position and
+            // selection survive a refresh.
+            int loadedRows = restartPaging ? 0 : tableModel.getRowCount();
+            restartPaging = false;
             tableModel.setRowCount(0);
-
-            List<Email> filteredEmails = parentPanel.getDataManager().getEmails().stream()
-                    .filter(e -> {
-                        String userEmail = parentPanel.getLoggedInUser().getEmailId();
-                        switch (viewType) {
-                            case INBOX:
-                                return e.isRecipient(userEmail) && e.getStatus() == EmailStatus.INBOX;
-                            case ARCHIVE:
-                                return (e.isRecipient(userEmail) || e.getFrom().equalsIgnoreCase(userEmail))
-                                        && e.getStatus() == EmailStatus.ARCHIVED;
-                            case DELETED:
-                                return (e.isRecipient(userEmail) || e.getFrom().equalsIgnoreCase(userEmail))
-                                        && e.getStatus() == EmailStatus.DELETED;
-                            case DRAFTS:
-                                return e.getFrom().equalsIgnoreCase(userEmail) && e.getStatus() == EmailStatus.DRAFT;
-                            default:
-                                return false;
-                        }
-                    })
-                    .sorted((e1, e2) -> Long.compare(e2.getTimestamp(), e1.getTimestamp()))
-                    .collect(Collectors.toList());
+            shown.clear();
+            arrivedBelow.clear();
+            IDataManager dataManager = parentPanel.getDataManager();
+            String view = (conversationOf != null) ? viewType.name() + "/conversation" : viewType.name();
+            ViewCache.Result folder = parentPanel.getViewCache().get(myEmail(), view, SORT_NEWEST_FIRST,
+                    folderVersion(), this::loadFolder, dataManager.getHeaderStore());
+            RowSorter.SortKey sort = rowSorter.getSortKey();
+            if (sort == null) {
+                pager = new NewestFirstPager(folder);
+            } else {
+                int column = sort.getColumn();
+                pager = new NewestFirstPager(folder, email -> sortKey(email, column),
+                        sort.getSortOrder() == SortOrder.DESCENDING);
+            }
+            appendRows(Math.max(FIRST_PAGE_ROWS, loadedRows));
 
             int newSelectedRow = -1;
-
-            for (int i = 0; i < filteredEmails.size(); i++) {
-                Email email = filteredEmails.get(i);
-                String fromToText;
-                if (viewType == ViewType.SENT || viewType == ViewType.DRAFTS ||
-                        (viewType == ViewType.ARCHIVE
-                                && email.getFrom().equalsIgnoreCase(parentPanel.getLoggedInUser().getEmailId()))
-                        ||
-                        (viewType == ViewType.DELETED
-                                && email.getFrom().equalsIgnoreCase(parentPanel.getLoggedInUser().getEmailId()))) {
-                    fromToText = String.join(", ", email.getTo());
-                } else {
-                    fromToText = email.getFrom();
-                }
-
-                tableModel.addRow(new Object[] {
-                        false,
-                        email.isRead() ? "" : "N",
-                        fromToText.split("@")[0],
-                        email.getSubject(),
-                        DATE_FORMAT.format(email.getTimestamp()),
-                        email
-                });
-
-                if (selectedEmailId != null && email.getMessageId().equals(selectedEmailId)) {
-                    newSelectedRow = i;
+            if (selectedEmailId != null) {
+                for (int i = 0; i < tableModel.getRowCount(); i++) {
+                    Email email = (Email) tableModel.getValueAt(i, 5);
+                    if (selectedEmailId.equals(email.getMessageId())) {
+                        newSelectedRow = i;
+                        break;
+                    }
                 }
             }
             updateControlsVisibility();
@@ -742,15 +1108,254 @@ public class EmailClient extends JFrame {
             }
         }
 
+        // Status this view lists: a MailboxState folder for views of received
+        // mail, the status of the user's own copies otherwise.
+        protected EmailStatus folderStatus() {
+            switch (viewType) {
+                case INBOX:
+                    return EmailStatus.INBOX;
+                case ARCHIVE:
+                    return EmailStatus.ARCHIVED;
+                case DELETED:
+                    return EmailStatus.DELETED;
+                case SNOOZED:
+                    return EmailStatus.SNOOZED;
+                case DRAFTS:
+                    return EmailStatus.DRAFT;
+                case SCHEDULED:
+                    return EmailStatus.SCHEDULED;
+                case SENT:
+                    return EmailStatus.SENT;
+                default:
+                    return null;
+            }
+        }
+
+        protected boolean listsReceivedMail() {
+            return viewType == ViewType.INBOX || viewType == ViewType.ARCHIVE || viewType == ViewType.DELETED
+                    || viewType == ViewType.SNOOZED;
+        }
+
+        // The emails of this view, in any order.
+        protected List<Email> loadFolder() {
+            if (conversationOf != null) return conversation(conversationOf);
+            EmailStatus status = folderStatus();
+            if (status == null) return new ArrayList<>();
+            return listsReceivedMail() ? parentPanel.getDataManager().getMailboxState().list(myEmail(), status)
+                    : ownEmails(status);
+        }
+
+        // Version stamp of loadFolder's result; read before loading it.
+        protected long folderVersion() {
+            EmailStatus status = folderStatus();
+            if (status == null || conversationOf != null) return StoreVersion.next();
+            IDataManager dataManager = parentPanel.getDataManager();
+            return listsReceivedMail() ? dataManager.getMailboxState().getVersion(myEmail(), status)
+                    : dataManager.getHeaderStore().getVersion(myEmail(), status);
+        }
+
+        // Whether loadFolder would list the email now.
+        protected boolean inFolder(Email email) {
+            IDataManager dataManager = parentPanel.getDataManager();
+            if (conversationOf != null) {
+                return inConversationFolder(email) && dataManager.getThreadIndex().sameConversation(email, conversationOf);
+            }
+            EmailStatus status = folderStatus();
+            if (status == null) return false;
+            if (listsReceivedMail()) {
+                return isReceived(email) && dataManager.getMailboxState().getStatus(myEmail(), email) == status;
+            }
+            return email.getStatus() == status && email.getFrom().equalsIgnoreCase(myEmail())
+                    && dataManager.getHeaderStore().contains(email);
+        }
+
+        protected Object[] rowFor(Email email) {
+            return new Object[] {
+                    false,
+                    isReadByMe(email) ? "" : "N",
+                    fromToText(email),
+                    email.getSubject(),
+                    DATE_FORMAT.format(displayDate(email)),
+                    email
+            };
+        }
+
+        private String fromToText(Email email) {
+            String fromToText = isReceived(email) ? email.getFrom() : String.join(", ", email.getTo());
+            return fromToText.split("@")[0];
+        }
+
+        private long displayDate(Email email) {
+            if (viewType == ViewType.SCHEDULED) {
+                return email.getDeferUntil();
+            } else if (viewType == ViewType.SNOOZED) {
+                return parentPanel.getDataManager().getMailboxState().getDeferUntil(myEmail(), email);
+            }
+            return email.getTimestamp();
+        }
+
+        // What a column is sorted on, matching what rowFor shows in it.
+        protected Comparable<?> sortKey(Email email, int column) {
+            switch (column) {
+                case 1:
+                    return !isReadByMe(email);
+                case 2:
+                    return fromToText(email).toLowerCase(Locale.ROOT);
+                case 3:
+                    return String.valueOf(email.getSubject()).toLowerCase(Locale.ROOT);
+                default:
+                    return displayDate(email);
+            }
+        }
+
+        // Order of the loaded rows: the sorted column's, ties newest first,
+        // or newest first.
+        @SuppressWarnings("unchecked")
+        private Comparator<Email> rowOrder() {
+            Comparator<Email> newestFirst = (e1, e2) -> Long.compare(e2.getTimestamp(), e1.getTimestamp());
+            RowSorter.SortKey sort = rowSorter.getSortKey();
+            if (sort == null) return newestFirst;
+            int column = sort.getColumn();
+            Comparator<Email> byColumn = (e1, e2) -> ((Comparable<Object>) sortKey(e1, column)).compareTo(sortKey(e2, column));
+            if (sort.getSortOrder() == SortOrder.DESCENDING) {
+                byColumn = byColumn.reversed();
+            }
+            return byColumn.thenComparing(newestFirst);
+        }
+
+        private void sortChanged() {
+            restartPaging = true;
+            refresh();
+            tableScrollPane.getVerticalScrollBar().setValue(0);
+        }
+
+        // Appends the next count rows. Emails that changed folder since the
+        // pager's snapshot are skipped, and emails that arrived below the
+        // loaded rows are merged in once paging reaches them.
+        protected void appendRows(int count) {
+            if (pager == null || (!pager.hasMore() && arrivedBelow.isEmpty())) return;
+            List<Email> page = new ArrayList<>();
+            for (Email email : pager.next(count)) {
+                if (!shown.contains(email) && inFolder(email)) {
+                    page.add(email);
+                }
+            }
+            if (!arrivedBelow.isEmpty()) {
+                Comparator<Email> order = rowOrder();
+                Email last = (pager.hasMore() && !page.isEmpty()) ? page.get(page.size() - 1) : null;
+                for (Iterator<Email> it = arrivedBelow.iterator(); it.hasNext();) {
+                    Email email = it.next();
+                    if (last == null || order.compare(email, last) <= 0) {
+                        it.remove();
+                        if (!shown.contains(email) && !page.contains(email) && inFolder(email)) page.add(email);
+                    }
+                }
+                page.sort(order);
+            }
+            List<Object[]> rows = new ArrayList<>(page.size());
+            for (Email email : page) {
+                shown.add(email);
+                rows.add(rowFor(email));
+            }
+            tableModel.addRows(rows);
+            updateMasterCheckboxState();
+        }
+
+        // Applies a change from the data layer to the loaded rows only: emails
+        // that left this folder lose their row, emails still in it have their
+        // row redrawn, and emails new to it get a row at their place in the
+        // current order.
+        public void apply(MailEvent event) {
+            if (pager == null) return;
+            Set<Email> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Email email : event.getEmails()) {
+                if (shown.contains(email)) {
+                    changed.add(email);
+                } else if (inFolder(email)) {
+                    insertRow(email);
+                }
+            }
+            List<Integer> leaving = new ArrayList<>();
+            for (int row = 0; row < tableModel.getRowCount() && !changed.isEmpty(); row++) {
+                Email email = (Email) tableModel.getValueAt(row, 5);
+                if (!changed.remove(email)) continue;
+                if (inFolder(email)) {
+                    tableModel.updateRow(row, rowFor(email));
+                } else {
+                    shown.remove(email);
+                    leaving.add(row);
+                }
+            }
+            tableModel.removeRows(leaving);
+            updateMasterCheckboxState();
+        }
+
+        // Rows are kept in the order the pager serves them.
+        private void insertRow(Email email) {
+            Comparator<Email> order = rowOrder();
+            int low = 0;
+            int high = tableModel.getRowCount();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (order.compare((Email) tableModel.getValueAt(mid, 5), email) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == tableModel.getRowCount() && pager.hasMore()) {
+                arrivedBelow.add(email);
+                return;
+            }
+            shown.add(email);
+            tableModel.insertRow(low, rowFor(email));
+        }
+
+        // Adds the next page once the table is scrolled to within a screen of
+        // its last loaded row.
+        private void loadMoreIfNearEnd() {
+            if (pageQueued || pager == null || !pager.hasMore()) return;
+            BoundedRangeModel scroll = tableScrollPane.getVerticalScrollBar().getModel();
+            if (scroll.getValue() + 2 * scroll.getExtent() < scroll.getMaximum()) return;
+
+            pageQueued = true;
+            SwingUtilities.invokeLater(() -> {
+                pageQueued = false;
+                appendRows(PAGE_ROWS);
+            });
+        }
+
         public void clearViewPane() {
-            emailView.setText("Select an email to view its content.");
+            emailView.showText("Select an email to view its content.");
             attachmentScrollPane.setVisible(false);
             attachmentPanel.removeAll();
+            cancelPreviews();
             emailViewActionsPanel.setVisible(false);
             currentSelectedEmail = null;
+            updateConversationButton();
             emailTable.clearSelection();
         }
 
+        protected String myEmail() {
+            return parentPanel.getLoggedInUser().getEmailId();
+        }
+
+        // Delivered messages are shared by all recipients; their folder and read
+        // flag live in MailboxState. Anything else is the user's own copy.
+        protected boolean isReceived(Email email) {
+            return email.getStatus() == EmailStatus.DELIVERED;
+        }
+
+        protected boolean isReadByMe(Email email) {
+            if (parentPanel.isReadPending(email)) return true;
+            return isReceived(email) ? parentPanel.getDataManager().getMailboxState().isRead(myEmail(), email)
+                    : email.isRead();
+        }
+
+        protected List<Email> ownEmails(EmailStatus status) {
+            return parentPanel.getDataManager().getHeaderStore().listOwn(myEmail(), status);
+        }
+
         protected List<Email> getSelectedEmails() {
             List<Email> selected = new ArrayList<>();
             for (int i = 0; i < tableModel.getRowCount(); i++) {
@@ -769,11 +1374,59 @@ public class EmailClient extends JFrame {
                 return;
             }
 
-            for (Email email : selectedEmails) {
-                email.setStatus(newStatus);
+            moveEmails(selectedEmails, newStatus, newStatus);
+        }
+
+        // Received messages move within the user's mailbox; own copies (drafts,
+        // scheduled, sent) change status directly.
+        protected void moveEmails(List<Email> emails, EmailStatus mailboxStatus, EmailStatus ownStatus) {
+            List<Email> received = new ArrayList<>();
+            List<Email> own = new ArrayList<>();
+            for (Email email : emails) {
+                (isReceived(email) ? received : own).add(email);
+            }
+
+            AsyncDataManager async = parentPanel.getAsyncDataManager();
+            parentPanel.reportFailure(CompletableFuture.allOf(
+                    async.moveInMailbox(myEmail(), received, mailboxStatus, 0), async.move(own, ownStatus)));
+        }
+
+        protected void showSnoozeMenu(Component invoker) {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime tomorrowMorning = now.toLocalDate().plusDays(1).atTime(8, 0);
+            LocalDateTime nextWeek = now.toLocalDate().with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atTime(8, 0);
+
+            JPopupMenu menu = new JPopupMenu();
+            addSnoozeOption(menu, "Later today (3 hours)", now.plusHours(3));
+            addSnoozeOption(menu, "Tomorrow morning", tomorrowMorning);
+            addSnoozeOption(menu, "Next week", nextWeek);
+            menu.show(invoker, 0, invoker.getHeight());
+        }
+
+        private void addSnoozeOption(JPopupMenu menu, String label, LocalDateTime until) {
+            long untilMillis = until.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            JMenuItem item = new JMenuItem(label + "  (" + DATE_FORMAT.format(untilMillis) + ")");
+            item.addActionListener(e -> snoozeSelectedEmails(untilMillis));
+            menu.add(item);
+        }
+
+        protected void snoozeSelectedEmails(long until) {
+            List<Email> selectedEmails = getSelectedEmails();
+            if (selectedEmails.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "Select one or more emails first.", "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            parentPanel.getDataManager().saveAll();
-            parentPanel.refreshAllViews();
+
+            String userEmail = myEmail();
+            DeferredMailQueue deferred = parentPanel.getDeferredMailQueue();
+            parentPanel.reportFailure(parentPanel.getAsyncDataManager()
+                    .moveInMailbox(userEmail, selectedEmails, EmailStatus.SNOOZED, until)
+                    .thenRun(() -> selectedEmails.forEach(email -> deferred.snooze(userEmail, email, until))));
+        }
+
+        protected void restoreEmails(List<Email> emails) {
+            moveEmails(emails, EmailStatus.INBOX, EmailStatus.SENT);
         }
 
         protected void unarchiveSelectedEmails() {
@@ -784,16 +1437,7 @@ public class EmailClient extends JFrame {
                 return;
             }
 
-            String myEmail = parentPanel.getLoggedInUser().getEmailId();
-            for (Email email : selectedEmails) {
-                if (email.getFrom().equalsIgnoreCase(myEmail)) {
-                    email.setStatus(EmailStatus.SENT);
-                } else {
-                    email.setStatus(EmailStatus.INBOX);
-                }
-            }
-            parentPanel.getDataManager().saveAll();
-            parentPanel.refreshAllViews();
+            restoreEmails(selectedEmails);
         }
 
         protected void deleteSelectedEmails(boolean permanent) {
@@ -810,9 +1454,31 @@ public class EmailClient extends JFrame {
                     "Are you sure you want to " + message, "Confirm Deletion", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                parentPanel.getDataManager().getEmails().removeAll(selectedEmails);
-                parentPanel.getDataManager().saveAll();
-                parentPanel.refreshAllViews();
+                List<Email> received = new ArrayList<>();
+                List<Email> own = new ArrayList<>();
+                for (Email email : selectedEmails) {
+                    (isReceived(email) ? received : own).add(email);
+                }
+
+                AsyncDataManager async = parentPanel.getAsyncDataManager();
+                parentPanel.reportFailure(CompletableFuture.allOf(
+                        async.removeFromMailbox(myEmail(), received), async.delete(own)));
+            }
+        }
+
+        private void selectionChanged() {
+            if (selectionTimer.isRunning()) {
+                selectionChanged = true;
+            } else {
+                displaySelectedEmail();
+            }
+            selectionTimer.restart();
+        }
+
+        private void selectionSettled() {
+            if (selectionChanged) {
+                selectionChanged = false;
+                displaySelectedEmail();
             }
         }
 
@@ -820,11 +1486,13 @@ public class EmailClient extends JFrame {
             int selectedRow = emailTable.getSelectedRow();
             attachmentPanel.removeAll();
             attachmentScrollPane.setVisible(false);
+            cancelPreviews();
 
             if (selectedRow == -1) {
-                emailView.setText("Select an email to view its content.");
+                emailView.showText("Select an email to view its content.");
                 emailViewActionsPanel.setVisible(false);
                 currentSelectedEmail = null;
+                updateConversationButton();
                 return;
             }
             int modelRow = emailTable.convertRowIndexToModel(selectedRow);
@@ -836,6 +1504,7 @@ public class EmailClient extends JFrame {
                 return;
 
             currentSelectedEmail = email;
+            updateConversationButton();
 
             String myEmail = parentPanel.getLoggedInUser().getEmailId();
             boolean isMyEmail = email.getFrom().equalsIgnoreCase(myEmail);
@@ -864,7 +1533,13 @@ public class EmailClient extends JFrame {
                     showForward = true;
                     break;
 
+                case SNOOZED:
+                    showReply = true;
+                    showForward = true;
+                    break;
+
                 case DRAFTS:
+                case SCHEDULED:
                 case DELETED:
                     showReply = false;
                     showForward = false;
@@ -875,38 +1550,33 @@ public class EmailClient extends JFrame {
             forwardButton.setVisible(showForward);
             emailViewActionsPanel.setVisible(showReply || showForward);
 
-            if (!email.isRead() && email.getStatus() != EmailStatus.DRAFT) {
-                email.setRead(true);
-                parentPanel.getDataManager().saveAll();
-                tableModel.setValueAt("", modelRow, 1);
-                emailTable.repaint();
+            if (!isReadByMe(email) && email.getStatus() != EmailStatus.DRAFT) {
+                parentPanel.markReadLater(email);
+                tableModel.markRead(modelRow);
             }
 
-            emailTable.addMouseListener(new MouseAdapter() {
-                @Override
-                public void mouseClicked(MouseEvent e) {
-                    if (e.getClickCount() == 2 && viewType == ViewType.DRAFTS) {
-                        int row = emailTable.rowAtPoint(e.getPoint());
-                        if (row >= 0) {
-                            int draftModelRow = emailTable.convertRowIndexToModel(row);
-                            Email selectedDraft = (Email) tableModel.getValueAt(draftModelRow, 5);
-                            parentPanel.getComposePanel().loadDraft(selectedDraft);
-                        }
-                    }
-                }
-            });
-
             List<String> attachmentPaths = email.getAttachmentPaths();
             if (attachmentPaths != null && !attachmentPaths.isEmpty()) {
                 attachmentScrollPane.setVisible(true);
                 attachmentPanel.removeAll();
                 for (String uniqueFilename : attachmentPaths) {
-                    String originalName = uniqueFilename.substring(uniqueFilename.indexOf("-") + 1);
+                    String originalName = AttachmentStore.displayName(uniqueFilename);
                     JButton attachmentButton = new JButton(originalName);
                     attachmentButton.setToolTipText("Click to save this file");
                     attachmentButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
                     attachmentButton.addActionListener(e -> saveAttachment(uniqueFilename, originalName));
+                    attachmentButton.setVerticalTextPosition(SwingConstants.BOTTOM);
+                    attachmentButton.setHorizontalTextPosition(SwingConstants.CENTER);
                     attachmentPanel.add(attachmentButton);
+
+                    CompletableFuture<BufferedImage> preview = parentPanel.getAttachmentPreviews().request(uniqueFilename);
+                    pendingPreviews.add(preview);
+                    preview.thenAcceptAsync(image -> {
+                        if (image != null) {
+                            attachmentButton.setIcon(new ImageIcon(image));
+                            attachmentPanel.revalidate();
+                        }
+                    }, AsyncDataManager.EDT);
                 }
                 attachmentPanel.revalidate();
                 attachmentPanel.repaint();
@@ -914,26 +1584,31 @@ public class EmailClient extends JFrame {
                 attachmentScrollPane.setVisible(false);
             }
 
-            String content = String.format(
+            String header = String.format(
                     "From: %s\n" +
                             "To: %s\n" +
                             "Subject: %s\n" +
                             "Date: %s\n\n" +
-                            "----------------------------------\n\n" +
-                            "%s",
+                            "----------------------------------\n\n",
                     email.getFrom(),
                     String.join(", ", email.getTo()),
                     email.getSubject(),
-                    DATE_FORMAT.format(email.getTimestamp()),
-                    email.getBody());
+                    DATE_FORMAT.format(email.getTimestamp()));
 
-            emailView.setText(content);
-            emailView.setCaretPosition(0);
+            emailView.showMessage(header, email);
+        }
+
+        // Drops preview requests for the previous email that have not started yet.
+        private void cancelPreviews() {
+            for (CompletableFuture<BufferedImage> preview : pendingPreviews) {
+                preview.cancel(false);
+            }
+            pendingPreviews.clear();
         }
 
         private void saveAttachment(String uniqueFilename, String originalFilename) {
-            File attachmentFile = parentPanel.getDataManager().getAttachment(uniqueFilename);
-            if (attachmentFile == null) {
+            long attachmentSize = parentPanel.getDataManager().getAttachmentSize(uniqueFilename);
+            if (attachmentSize < 0) {
                 JOptionPane.showMessageDialog(this, "Error: Attachment file not found in database.", "Error",
                         JOptionPane.ERROR_MESSAGE);
                 return;
@@ -944,17 +1619,25 @@ public class EmailClient extends JFrame {
             fileChooser.setSelectedFile(new File(originalFilename));
 
             int userSelection = fileChooser.showSaveDialog(this);
-            if (userSelection == JFileChooser.APPROVE_OPTION) {
-                File fileToSave = fileChooser.getSelectedFile();
-                try {
-                    Files.copy(attachmentFile.toPath(), fileToSave.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    JOptionPane.showMessageDialog(this, "Attachment saved successfully!", "Success",
-                            JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage(), "Save Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
-            }
+            if (userSelection != JFileChooser.APPROVE_OPTION) return;
+
+            File fileToSave = fileChooser.getSelectedFile();
+            AttachmentTransfer transfer = new AttachmentTransfer(attachmentSize);
+            TransferProgressDialog progress = new TransferProgressDialog(this, "Saving " + originalFilename,
+                    Arrays.asList(transfer));
+            parentPanel.getAsyncDataManager().exportAttachment(uniqueFilename, fileToSave, transfer)
+                    .whenCompleteAsync((v, ex) -> {
+                        progress.finish();
+                        if (TransferProgressDialog.isCancellation(ex)) return;
+                        if (ex != null) {
+                            Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                            JOptionPane.showMessageDialog(this, cause.getMessage(), "Save Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        JOptionPane.showMessageDialog(this, "Attachment saved successfully!", "Success",
+                                JOptionPane.INFORMATION_MESSAGE);
+                    }, AsyncDataManager.EDT);
         }
     }
 
@@ -983,6 +1666,7 @@ public class EmailClient extends JFrame {
             deleteButton = client.createStyledButton("Delete Selected", new Color(219, 68, 55), Color.BLACK);
             deleteButton.addActionListener(e -> deleteSelectedEmails(true));
             buttonPanel.add(deleteButton);
+            buttonPanel.add(createConversationButton());
 
             JTextArea unsendInfo = new JTextArea(
                     "Note: Deleting a sent email within 60 seconds of sending will 'unsend' it (delete it for all recipients). After 60 seconds, it only deletes your copy.");
@@ -1013,12 +1697,12 @@ public class EmailClient extends JFrame {
 
             List<Email> emailsToUnsend = new ArrayList<>();
             List<Email> emailsToDelete = new ArrayList<>();
+            List<Email> emailsToRemove = new ArrayList<>();
 
-            long currentTime = System.currentTimeMillis();
+            OutboundQueue outbound = parentPanel.getOutboundQueue();
 
             for (Email email : selectedEmails) {
-                long timeElapsed = currentTime - email.getTimestamp();
-                if (timeElapsed < UNSEND_TIMEOUT_MS) {
+                if (outbound.isPending(email.getMessageId())) {
                     emailsToUnsend.add(email);
                 } else {
                     emailsToDelete.add(email);
@@ -1032,7 +1716,7 @@ public class EmailClient extends JFrame {
                         "Confirm Deletion", JOptionPane.YES_NO_OPTION);
 
                 if (confirmDelete == JOptionPane.YES_OPTION) {
-                    parentPanel.getDataManager().getEmails().removeAll(emailsToDelete);
+                    emailsToRemove.addAll(emailsToDelete);
                 }
             }
 
@@ -1043,70 +1727,44 @@ public class EmailClient extends JFrame {
                         "Confirm Unsend", JOptionPane.YES_NO_OPTION);
 
                 if (confirmUnsend == JOptionPane.YES_OPTION) {
-                    List<Email> allEmails = parentPanel.getDataManager().getEmails();
-                    List<Email> emailsToRemove = new ArrayList<>(emailsToUnsend);
-
+                    int alreadyDelivered = 0;
                     for (Email toUnsend : emailsToUnsend) {
-                        String msgId = toUnsend.getMessageId();
-                        if (msgId != null) {
-                            allEmails.stream()
-                                    .filter(e -> msgId.equals(e.getMessageId()) && e.getStatus() == EmailStatus.INBOX)
-                                    .forEach(emailsToRemove::add);
+                        Email pendingCopy = outbound.cancel(toUnsend.getMessageId());
+                        if (pendingCopy != null) {
+                            emailsToRemove.add(toUnsend);
+                            emailsToRemove.add(pendingCopy);
+                        } else {
+                            alreadyDelivered++;
                         }
                     }
-                    allEmails.removeAll(emailsToRemove);
+
+                    if (alreadyDelivered > 0) {
+                        JOptionPane.showMessageDialog(this,
+                                alreadyDelivered + " email(s) were delivered before they could be unsent.", "Unsend",
+                                JOptionPane.INFORMATION_MESSAGE);
+                    }
                 }
             }
 
-            parentPanel.getDataManager().saveAll();
-            parentPanel.refreshAllViews();
+            parentPanel.reportFailure(parentPanel.getAsyncDataManager().delete(emailsToRemove));
         }
 
         @Override
-        public void refresh() {
-            String selectedEmailId = null;
-            if (currentSelectedEmail != null) {
-                selectedEmailId = currentSelectedEmail.getMessageId();
-            }
-
-            tableModel.setRowCount(0);
-
-            List<Email> filteredEmails = parentPanel.getDataManager().getEmails().stream()
-                    .filter(e -> e.getFrom().equalsIgnoreCase(parentPanel.getLoggedInUser().getEmailId()))
-                    .filter(e -> e.getStatus() == EmailStatus.SENT)
-                    .sorted((e1, e2) -> Long.compare(e2.getTimestamp(), e1.getTimestamp()))
-                    .collect(Collectors.toList());
-
-            int newSelectedRow = -1;
-
-            for (int i = 0; i < filteredEmails.size(); i++) {
-                Email email = filteredEmails.get(i);
-                tableModel.addRow(new Object[] {
-                        false,
-                        "",
-                        String.join(", ", email.getTo()).split("@")[0],
-                        email.getSubject(),
-                        DATE_FORMAT.format(email.getTimestamp()),
-                        email
-                });
-
-                if (selectedEmailId != null && email.getMessageId().equals(selectedEmailId)) {
-                    newSelectedRow = i;
-                }
-            }
-            updateControlsVisibility();
-            updateMasterCheckboxState();
+        protected Comparable<?> sortKey(Email email, int column) {
+            // The status column is blank here.
+            return (column == 1) ? 0 : super.sortKey(email, column);
+        }
 
-            if (newSelectedRow != -1) {
-                try {
-                    int viewRow = emailTable.convertRowIndexToView(newSelectedRow);
-                    emailTable.setRowSelectionInterval(viewRow, viewRow);
-                } catch (Exception e) {
-                    clearViewPane();
-                }
-            } else {
-                clearViewPane();
-            }
+        @Override
+        protected Object[] rowFor(Email email) {
+            return new Object[] {
+                    false,
+                    "",
+                    String.join(", ", email.getTo()).split("@")[0],
+                    email.getSubject(),
+                    DATE_FORMAT.format(email.getTimestamp()),
+                    email
+            };
         }
     }
 
@@ -1163,15 +1821,7 @@ public class EmailClient extends JFrame {
                 return;
             }
 
-            for (Email email : selectedEmails) {
-                if (email.getFrom().equalsIgnoreCase(parentPanel.getLoggedInUser().getEmailId())) {
-                    email.setStatus(EmailStatus.SENT);
-                } else {
-                    email.setStatus(EmailStatus.INBOX);
-                }
-            }
-            parentPanel.getDataManager().saveAll();
-            parentPanel.refreshAllViews();
+            restoreEmails(selectedEmails);
         }
     }
 
@@ -1191,7 +1841,7 @@ public class EmailClient extends JFrame {
             AttachmentItem(String savedPath) {
                 this.file = null;
                 this.savedPath = savedPath;
-                this.displayName = savedPath.substring(savedPath.indexOf("-") + 1);
+                this.displayName = AttachmentStore.displayName(savedPath);
             }
 
             @Override
@@ -1202,7 +1852,12 @@ public class EmailClient extends JFrame {
 
         public boolean isLoading = false;
         private Email currentDraft = null;
+        // Thread links of the message being written, taken from the message
+        // it replies to or forwards.
+        private String inReplyTo = null;
+        private List<String> references = new ArrayList<>();
         private boolean isUpdatingToField = false;
+        private boolean isSending = false;
 
         private final JTextArea toField;
         private final JTextField subjectField;
@@ -1213,7 +1868,15 @@ public class EmailClient extends JFrame {
         private JPanel attachmentsContainer; 
         private List<AttachmentItem> currentAttachments = new ArrayList<>();
 
-        private List<JCheckBox> contactCheckboxes = new ArrayList<>();
+        private static final int SUGGESTIONS = 8;
+        // Built on first use and dropped when users are added or removed.
+        private ContactIndex contacts;
+        // Lower-cased addresses in the To field, for the open contacts list.
+        private Set<String> fieldEmails = new HashSet<>();
+        private JList<ContactIndex.Contact> contactsList;
+        private final DefaultListModel<ContactIndex.Contact> suggestionModel = new DefaultListModel<>();
+        private final JList<ContactIndex.Contact> suggestionList = new JList<>(suggestionModel);
+        private final JPopupMenu suggestionPopup = new JPopupMenu();
 
         public ComposePanel(MailboxPanel parentPanel, EmailClient client) {
             this.parentPanel = parentPanel;
@@ -1227,6 +1890,9 @@ public class EmailClient extends JFrame {
             sendButton.setFont(new Font("Arial", Font.BOLD, 14));
             sendButton.addActionListener(e -> handleSend(false));
 
+            JButton sendLaterButton = client.createStyledButton("Send Later", Color.WHITE, Color.BLACK);
+            sendLaterButton.addActionListener(e -> promptSendLater());
+
             JButton saveDraftButton = client.createStyledButton("Save Draft", Color.WHITE, Color.BLACK);
             saveDraftButton.addActionListener(e -> handleSend(true));
 
@@ -1240,6 +1906,7 @@ public class EmailClient extends JFrame {
             attachButton.addActionListener(e -> attachFile());
 
             controlsPanel.add(sendButton);
+            controlsPanel.add(sendLaterButton);
             controlsPanel.add(saveDraftButton);
             controlsPanel.add(discardButton);
             controlsPanel.add(new JSeparator(SwingConstants.VERTICAL));
@@ -1315,48 +1982,151 @@ public class EmailClient extends JFrame {
                 public void removeUpdate(DocumentEvent e) { updateCheckboxesFromToField(); }
                 public void changedUpdate(DocumentEvent e) { updateCheckboxesFromToField(); }
             });
+
+            suggestionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            suggestionList.setFocusable(false);
+            suggestionList.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    acceptSuggestion(suggestionList.locationToIndex(e.getPoint()));
+                }
+            });
+            suggestionPopup.setFocusable(false);
+            suggestionPopup.add(suggestionList);
+            toField.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    if (!suggestionPopup.isVisible()) return;
+                    int selected = suggestionList.getSelectedIndex();
+                    switch (e.getKeyCode()) {
+                        case KeyEvent.VK_DOWN:
+                            suggestionList.setSelectedIndex(Math.min(selected + 1, suggestionModel.size() - 1));
+                            break;
+                        case KeyEvent.VK_UP:
+                            suggestionList.setSelectedIndex(Math.max(selected - 1, 0));
+                            break;
+                        case KeyEvent.VK_ENTER:
+                        case KeyEvent.VK_TAB:
+                            acceptSuggestion(selected);
+                            break;
+                        case KeyEvent.VK_ESCAPE:
+                            suggestionPopup.setVisible(false);
+                            break;
+                        default:
+                            return;
+                    }
+                    e.consume();
+                }
+            });
+        }
+
+        private ContactIndex contacts() {
+            if (contacts == null) {
+                String me = parentPanel.getLoggedInUser().getEmailId();
+                HeaderStore headers = parentPanel.getDataManager().getHeaderStore();
+                List<Email> sent = new ArrayList<>(headers.listOwn(me, EmailStatus.SENT));
+                sent.addAll(headers.listOwn(me, EmailStatus.SCHEDULED));
+                contacts = new ContactIndex(parentPanel.getDataManager().getUsers(), me, sent);
+            }
+            return contacts;
         }
 
+        public void contactsChanged() {
+            contacts = null;
+        }
+
+        // The recipient being typed: the text between the comma before the
+        // caret and the caret.
+        private String currentToken() {
+            String text = toField.getText();
+            int caret = Math.min(toField.getCaretPosition(), text.length());
+            return text.substring(text.lastIndexOf(',', caret - 1) + 1, caret).trim();
+        }
 
+        private void updateSuggestions() {
+            String token = toField.isFocusOwner() ? currentToken() : "";
+            suggestionModel.clear();
+            if (!token.isEmpty()) {
+                for (ContactIndex.Contact contact : contacts().suggest(token, SUGGESTIONS + fieldEmails.size())) {
+                    if (suggestionModel.size() == SUGGESTIONS) break;
+                    if (!fieldEmails.contains(contact.getAddress().toLowerCase())) {
+                        suggestionModel.addElement(contact);
+                    }
+                }
+            }
+            if (suggestionModel.isEmpty()) {
+                suggestionPopup.setVisible(false);
+                return;
+            }
+            suggestionList.setSelectedIndex(0);
+            suggestionList.setVisibleRowCount(suggestionModel.size());
+            if (suggestionPopup.isVisible()) {
+                suggestionPopup.pack();
+            } else if (toField.isShowing()) {
+                suggestionPopup.show(toField, 0, toField.getHeight());
+            }
+        }
+
+        // Replaces the recipient being typed with the suggestion's address.
+        private void acceptSuggestion(int index) {
+            if (index < 0 || index >= suggestionModel.size()) return;
+            String address = suggestionModel.get(index).getAddress();
+            String text = toField.getText();
+            int caret = Math.min(toField.getCaretPosition(), text.length());
+            int start = text.lastIndexOf(',', caret - 1) + 1;
+            int end = text.indexOf(',', caret);
+            String head = text.substring(0, start);
+            String tail = (end < 0) ? "" : text.substring(end);
+            String entry = (head.isEmpty() ? "" : " ") + address;
+
+            isUpdatingToField = true;
+            toField.setText(head + entry + (tail.isEmpty() ? ", " : tail));
+            toField.setCaretPosition(Math.min(head.length() + entry.length() + 2, toField.getText().length()));
+            isUpdatingToField = false;
+            fieldEmails = getEmailsFromField();
+            suggestionPopup.setVisible(false);
+        }
+
+
+        // One list row per contact, most written-to first. The list paints
+        // only the rows in view with a single check box, so a large directory
+        // opens as fast as a small one.
         private void showContactsPopup(Component invoker) {
             JPopupMenu popup = new JPopupMenu();
             popup.setPreferredSize(new Dimension(300, 200));
-            
-            JPanel contentPanel = new JPanel();
-            contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
-            contentPanel.setBackground(Color.WHITE);
-            
-            List<User> allUsers = parentPanel.getDataManager().getUsers();
-            String currentUserEmail = parentPanel.getLoggedInUser().getEmailId();
-            
-            contactCheckboxes.clear();
 
-            Set<String> currentEmails = getEmailsFromField();
-
-            for (User user : allUsers) {
-                if (user.getEmailId().equalsIgnoreCase(currentUserEmail)) continue;
-                
-                String labelText = user.getName() + " <" + user.getEmailId() + ">";
-                JCheckBox checkBox = new JCheckBox(labelText);
-                checkBox.setBackground(Color.WHITE);
-                checkBox.setFocusPainted(false);
-                
-                if (currentEmails.contains(user.getEmailId().toLowerCase())) {
-                    checkBox.setSelected(true);
+            fieldEmails = getEmailsFromField();
+            JList<ContactIndex.Contact> list = new JList<>(contacts().all());
+            JCheckBox renderer = new JCheckBox();
+            renderer.setBackground(Color.WHITE);
+            list.setCellRenderer((l, contact, index, isSelected, hasFocus) -> {
+                renderer.setText(contact.toString());
+                renderer.setSelected(fieldEmails.contains(contact.getAddress().toLowerCase()));
+                return renderer;
+            });
+            list.setFixedCellHeight(24);
+            list.setFixedCellWidth(280);
+            list.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    int index = list.locationToIndex(e.getPoint());
+                    if (index < 0) return;
+                    String address = list.getModel().getElementAt(index).getAddress();
+                    updateToFieldFromCheckbox(address, !fieldEmails.contains(address.toLowerCase()));
+                    fieldEmails = getEmailsFromField();
+                    list.repaint();
                 }
+            });
+            contactsList = list;
+            popup.addPopupMenuListener(new PopupMenuListener() {
+                public void popupMenuWillBecomeVisible(PopupMenuEvent e) { }
+                public void popupMenuWillBecomeInvisible(PopupMenuEvent e) { contactsList = null; }
+                public void popupMenuCanceled(PopupMenuEvent e) { }
+            });
 
-                checkBox.addActionListener(e -> {
-                    if (isUpdatingToField) return;
-                    updateToFieldFromCheckbox(user.getEmailId(), checkBox.isSelected());
-                });
-                
-                contactCheckboxes.add(checkBox);
-                contentPanel.add(checkBox);
-            }
-            
-            JScrollPane scrollPane = new JScrollPane(contentPanel);
+            JScrollPane scrollPane = new JScrollPane(list);
             scrollPane.setBorder(null);
-            
+
             popup.add(scrollPane);
             popup.show(invoker, 0, invoker.getHeight());
         }
@@ -1390,13 +2160,25 @@ public class EmailClient extends JFrame {
         }
 
         private void updateCheckboxesFromToField() {
-            if (isUpdatingToField) return; 
+            if (isUpdatingToField) return;
+            fieldEmails = getEmailsFromField();
+            if (contactsList != null) {
+                contactsList.repaint();
+            }
+            updateSuggestions();
         }
 
         private void attachFile() {
             JFileChooser fileChooser = new JFileChooser();
             if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-                addAttachment(new AttachmentItem(fileChooser.getSelectedFile()));
+                File file = fileChooser.getSelectedFile();
+                try {
+                    parentPanel.getDataManager().getAttachmentStore().checkCapacity(file.length());
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(this, e.getMessage(), "Attachment Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                addAttachment(new AttachmentItem(file));
             }
         }
         
@@ -1460,6 +2242,8 @@ public class EmailClient extends JFrame {
             String quote = createReplyQuote(originalEmail, "wrote");
             bodyArea.setText("\n\n" + quote);
             bodyArea.setCaretPosition(0);
+            inReplyTo = originalEmail.getMessageId();
+            references = originalEmail.getContent().referencesFor(originalEmail.getMessageId());
         }
 
         public void loadForward(Email originalEmail) {
@@ -1485,6 +2269,7 @@ public class EmailClient extends JFrame {
             String quote = createReplyQuote(originalEmail, "Forwarded Message");
             bodyArea.setText("\n\n" + quote);
             bodyArea.setCaretPosition(0);
+            references = originalEmail.getContent().referencesFor(originalEmail.getMessageId());
         }
 
         private String createReplyQuote(Email email, String action) {
@@ -1516,6 +2301,8 @@ public class EmailClient extends JFrame {
             clearFields();
 
             this.currentDraft = draft;
+            inReplyTo = draft.getContent().getInReplyTo();
+            references = draft.getContent().getReferences();
             toField.setText(String.join(", ", draft.getTo()));
             subjectField.setText(draft.getSubject());
             bodyArea.setText(draft.getBody());
@@ -1527,7 +2314,32 @@ public class EmailClient extends JFrame {
             }
         }
 
+        private void promptSendLater() {
+            SpinnerDateModel model = new SpinnerDateModel(
+                    new Date(System.currentTimeMillis() + 60 * 60 * 1000), null, null, Calendar.MINUTE);
+            JSpinner spinner = new JSpinner(model);
+            spinner.setEditor(new JSpinner.DateEditor(spinner, "MMM d, yyyy HH:mm"));
+
+            int ok = JOptionPane.showConfirmDialog(this, new Object[] { "Send this email at:", spinner },
+                    "Send Later", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+            if (ok != JOptionPane.OK_OPTION) return;
+
+            long sendAt = model.getDate().getTime();
+            if (sendAt <= System.currentTimeMillis()) {
+                JOptionPane.showMessageDialog(this, "Please choose a time in the future.", "Send Later",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            handleSend(false, sendAt);
+        }
+
         private void handleSend(boolean isDraft) {
+            handleSend(isDraft, 0L);
+        }
+
+        private void handleSend(boolean isDraft, long sendAt) {
+            if (isSending) return;
+
             String senderEmail = parentPanel.getLoggedInUser().getEmailId();
 
             List<String> recipients = Arrays.stream(toField.getText().split(","))
@@ -1584,76 +2396,114 @@ public class EmailClient extends JFrame {
                 return;
             }
 
-            List<String> savedAttachmentNames = new ArrayList<>();
+            AsyncDataManager async = parentPanel.getAsyncDataManager();
+            List<CompletableFuture<String>> pendingAttachments = new ArrayList<>();
+            List<AttachmentTransfer> transfers = new ArrayList<>();
             for (AttachmentItem item : currentAttachments) {
                 if (item.savedPath != null) {
-                    savedAttachmentNames.add(item.savedPath);
+                    pendingAttachments.add(CompletableFuture.completedFuture(item.savedPath));
                 } else if (item.file != null) {
-                    String savedName = parentPanel.getDataManager().saveAttachment(item.file);
-                    if (savedName != null) {
-                        savedAttachmentNames.add(savedName);
-                    }
-                }
-            }
-
-            if (currentDraft != null) {
-                currentDraft.to = recipients;
-                currentDraft.subject = subject;
-                currentDraft.body = body;
-                currentDraft.attachmentPaths = savedAttachmentNames;
-
-                if (!isDraft) {
-                    String msgId = currentDraft.getMessageId();
-                    Email recipientCopy = new Email(msgId, senderEmail, recipients, subject, body, savedAttachmentNames,
-                            EmailStatus.INBOX);
-                    parentPanel.getDataManager().addEmail(recipientCopy);
-
-                    Email senderCopy = new Email(msgId, senderEmail, recipients, subject, body, savedAttachmentNames,
-                            EmailStatus.SENT);
-                    parentPanel.getDataManager().addEmail(senderCopy);
-
-                    parentPanel.getDataManager().getEmails().remove(currentDraft);
-
-                } else {
-                    currentDraft.setStatus(EmailStatus.DRAFT);
-                    currentDraft.setRead(true);
+                    AttachmentTransfer transfer = new AttachmentTransfer(item.file.length());
+                    transfers.add(transfer);
+                    pendingAttachments.add(async.saveAttachment(item.file, transfer));
                 }
-            } else {
-                String msgId = UUID.randomUUID().toString();
-
-                if (!isDraft) {
-                    Email recipientCopy = new Email(msgId, senderEmail, recipients, subject, body, savedAttachmentNames,
-                            EmailStatus.INBOX);
-                    parentPanel.getDataManager().addEmail(recipientCopy);
-
-                    Email senderCopy = new Email(msgId, senderEmail, recipients, subject, body, savedAttachmentNames,
-                            EmailStatus.SENT);
-                    parentPanel.getDataManager().addEmail(senderCopy);
-
-                } else {
-                    Email newDraft = new Email(msgId, senderEmail, recipients, subject, body, savedAttachmentNames,
-                            EmailStatus.DRAFT);
-                    parentPanel.getDataManager().addEmail(newDraft);
-                }
-            }
-
-            parentPanel.getDataManager().saveAll();
-
-            if (!isDraft) {
-                JOptionPane.showMessageDialog(this, "Email sent successfully!", "Success",
-                        JOptionPane.INFORMATION_MESSAGE);
-                clearFields();
-                parentPanel.showView("SENT");
-            } else {
-                JOptionPane.showMessageDialog(this, "Draft saved successfully!", "Success",
-                        JOptionPane.INFORMATION_MESSAGE);
-                clearFields();
-                parentPanel.showView("DRAFTS");
             }
+            TransferProgressDialog progress = transfers.isEmpty() ? null
+                    : new TransferProgressDialog(this, "Attaching files", transfers);
+
+            Email draft = currentDraft;
+            String parentId = inReplyTo;
+            List<String> threadReferences = references;
+            isSending = true;
+
+            CompletableFuture.allOf(pendingAttachments.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(v -> pendingAttachments.stream()
+                            .map(CompletableFuture::join)
+                            .filter(name -> name != null)
+                            .collect(Collectors.toList()))
+                    .thenCompose(savedAttachmentNames -> {
+                        MessageContent content = new MessageContent(subject, body, savedAttachmentNames, parentId,
+                                threadReferences);
+                        if (draft != null) {
+                            draft.setTo(recipients);
+                            draft.content = content;
+                        }
+                        String msgId = (draft != null) ? draft.getMessageId() : UUID.randomUUID().toString();
+
+                        if (!isDraft && sendAt > 0) {
+                            Email scheduledCopy = new Email(msgId, senderEmail, recipients, content,
+                                    EmailStatus.SCHEDULED);
+                            scheduledCopy.timestamp = sendAt;
+                            scheduledCopy.deferUntil = sendAt;
+                            scheduledCopy.setRead(true);
+                            CompletableFuture<Void> scheduled = async.deliver(Arrays.asList(scheduledCopy))
+                                    .thenRun(() -> parentPanel.getDeferredMailQueue().schedule(scheduledCopy));
+                            return (draft != null)
+                                    ? scheduled.thenCompose(v -> async.delete(Arrays.asList(draft)))
+                                    : scheduled;
+                        } else if (!isDraft) {
+                            Email recipientCopy = new Email(msgId, senderEmail, recipients, content,
+                                    EmailStatus.PENDING);
+                            Email senderCopy = new Email(msgId, senderEmail, recipients, content,
+                                    EmailStatus.SENT);
+                            CompletableFuture<Void> delivered = async.deliver(Arrays.asList(recipientCopy, senderCopy))
+                                    .thenRun(() -> parentPanel.getOutboundQueue().enqueue(recipientCopy));
+                            return (draft != null)
+                                    ? delivered.thenCompose(v -> async.delete(Arrays.asList(draft)))
+                                    : delivered;
+                        } else if (draft != null) {
+                            draft.setStatus(EmailStatus.DRAFT);
+                            draft.setRead(true);
+                            return async.update(draft);
+                        } else {
+                            Email newDraft = new Email(msgId, senderEmail, recipients, content,
+                                    EmailStatus.DRAFT);
+                            return async.deliver(Arrays.asList(newDraft));
+                        }
+                    })
+                    .whenCompleteAsync((v, ex) -> {
+                        isSending = false;
+                        if (progress != null) {
+                            progress.finish();
+                        }
+                        if (TransferProgressDialog.isCancellation(ex)) {
+                            JOptionPane.showMessageDialog(this, "Attaching was cancelled. Nothing was sent.", "Cancelled",
+                                    JOptionPane.INFORMATION_MESSAGE);
+                            return;
+                        }
+                        if (ex != null) {
+                            Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                            JOptionPane.showMessageDialog(this, "Error: " + cause.getMessage(), "Send Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        if (!isDraft && contacts != null) {
+                            contacts.recordSent(recipients);
+                        }
+                        if (!isDraft && sendAt > 0) {
+                            JOptionPane.showMessageDialog(this,
+                                    "Email scheduled for " + MailListPanel.DATE_FORMAT.format(sendAt) + ".", "Success",
+                                    JOptionPane.INFORMATION_MESSAGE);
+                            clearFields();
+                            parentPanel.showView("SCHEDULED");
+                        } else if (!isDraft) {
+                            JOptionPane.showMessageDialog(this, "Email sent successfully!", "Success",
+                                    JOptionPane.INFORMATION_MESSAGE);
+                            clearFields();
+                            parentPanel.showView("SENT");
+                        } else {
+                            JOptionPane.showMessageDialog(this, "Draft saved successfully!", "Success",
+                                    JOptionPane.INFORMATION_MESSAGE);
+                            clearFields();
+                            parentPanel.showView("DRAFTS");
+                        }
+                    }, AsyncDataManager.EDT);
         }
 
         public void clearFields() {
             this.currentDraft = null;
+            inReplyTo = null;
+            references = new ArrayList<>();
             toField.setText("");
             subjectField.setText("");
             bodyArea.setText("");
@@ -1666,6 +2516,73 @@ public class EmailClient extends JFrame {
         }
     }
 
+    // Combined progress of background attachment copies, with a Cancel button.
+    // Only shown if the copies are still running after a short delay, so small
+    // files never flash a window.
+    static class TransferProgressDialog extends JDialog {
+        private static final int SHOW_DELAY_MS = 300;
+        private static final int POLL_MS = 100;
+
+        private final List<AttachmentTransfer> transfers;
+        private final JProgressBar progressBar = new JProgressBar(0, 1000);
+        private final JButton cancelButton = new JButton("Cancel");
+        private final Timer timer;
+
+        TransferProgressDialog(Component owner, String title, List<AttachmentTransfer> transfers) {
+            super(SwingUtilities.getWindowAncestor(owner), title, ModalityType.MODELESS);
+            this.transfers = transfers;
+
+            progressBar.setStringPainted(true);
+            progressBar.setPreferredSize(new Dimension(320, 24));
+            cancelButton.addActionListener(e -> cancel());
+
+            JPanel panel = new JPanel(new BorderLayout(10, 10));
+            panel.setBorder(new EmptyBorder(15, 15, 15, 15));
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(cancelButton, BorderLayout.SOUTH);
+            setContentPane(panel);
+            setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+            pack();
+
+            timer = new Timer(POLL_MS, e -> update());
+            timer.setInitialDelay(SHOW_DELAY_MS);
+            timer.start();
+        }
+
+        static boolean isCancellation(Throwable ex) {
+            return ex instanceof CancellationException
+                    || (ex != null && ex.getCause() instanceof CancellationException);
+        }
+
+        private void update() {
+            long done = 0;
+            long total = 0;
+            for (AttachmentTransfer transfer : transfers) {
+                done += transfer.getDone();
+                total += transfer.getTotal();
+            }
+            progressBar.setValue((total > 0) ? (int) (done * 1000 / total) : 0);
+            if (cancelButton.isEnabled()) progressBar.setString(String.format("%.1f of %.1f MB", done / (1024.0 * 1024.0), total / (1024.0 * 1024.0)));
+            if (!isVisible()) {
+                setLocationRelativeTo(getOwner());
+                setVisible(true);
+            }
+        }
+
+        private void cancel() {
+            cancelButton.setEnabled(false);
+            progressBar.setString("Cancelling...");
+            for (AttachmentTransfer transfer : transfers) {
+                transfer.cancel();
+            }
+        }
+
+        void finish() {
+            timer.stop();
+            dispose();
+        }
+    }
+
     public class SettingsPanel extends JPanel {
         private final MailboxPanel parentPanel;
         private final EmailClient client;
@@ -1673,6 +2590,7 @@ public class EmailClient extends JFrame {
         private final JTextField emailField;
         private final JPasswordField newPasswordField;
         private final JPasswordField confirmPasswordField;
+        private final JLabel storageLabel;
 
         public SettingsPanel(MailboxPanel parentPanel, EmailClient client) {
             this.parentPanel = parentPanel;
@@ -1765,6 +2683,12 @@ public class EmailClient extends JFrame {
             gbc.insets = new Insets(10, 20, 20, 20);
             formPanel.add(deleteAccountButton, gbc);
 
+            storageLabel = new JLabel();
+            storageLabel.setForeground(Color.GRAY);
+            gbc.gridy = 8;
+            gbc.insets = new Insets(0, 20, 10, 20);
+            formPanel.add(storageLabel, gbc);
+
             JPanel centerContainer = new JPanel(new GridBagLayout());
             centerContainer.add(formPanel);
 
@@ -1781,6 +2705,12 @@ public class EmailClient extends JFrame {
             emailField.setText(user.getEmailId());
             newPasswordField.setText("");
             confirmPasswordField.setText("");
+            IDataManager dataManager = parentPanel.getDataManager();
+            storageLabel.setText("<html>Attachment cleanup: "
+                    + dataManager.getAttachmentStore().getCollector().describe()
+                    + "<br>Message bodies: " + BodyArena.describe()
+                    + "<br>Cold storage: " + dataManager.getSegmentStore().describe()
+                    + "<br>Folder cache: " + parentPanel.getViewCache().describe() + "</html>");
         }
 
         private void saveSettings() {
@@ -1819,7 +2749,12 @@ public class EmailClient extends JFrame {
             }
 
             if (nameChanged || passwordChanged) {
-                parentPanel.getDataManager().saveAll();
+                try {
+                    parentPanel.getDataManager().updateUser(user);
+                } catch (DataStoreException e) {
+                    JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
                 JOptionPane.showMessageDialog(this, "Settings saved successfully!", "Success",
                         JOptionPane.INFORMATION_MESSAGE);
                 parentPanel.showView("INBOX");
@@ -1848,7 +2783,12 @@ public class EmailClient extends JFrame {
                         JOptionPane.ERROR_MESSAGE);
                         
                     if (confirm == JOptionPane.YES_OPTION) {
-                        parentPanel.getDataManager().deleteUser(currentUser);
+                        try {
+                            parentPanel.getDataManager().deleteUser(currentUser);
+                        } catch (DataStoreException e) {
+                            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
                         JOptionPane.showMessageDialog(this, "Account deleted successfully.", "Goodbye", JOptionPane.INFORMATION_MESSAGE);
                         client.logout();
                     }
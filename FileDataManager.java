@@ -1,19 +1,34 @@
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FileDataManager implements IDataManager {
     private List<User> users;
     private List<Email> emails;
+    private MailboxState mailboxState;
     
     private static final String DB_DIR = "database";
     private static final String USERS_FILE_PATH = DB_DIR + "/users.db";
     private static final String EMAILS_FILE_PATH = DB_DIR + "/emails.db";
+    private static final String MAILBOX_STATE_FILE_PATH = DB_DIR + "/mailbox_state.db";
+    private static final String BODY_DICTIONARY_FILE_PATH = DB_DIR + "/body_dictionary.db";
     private static final String ATTACHMENTS_DIR_PATH = DB_DIR + "/attachments/"; 
+    private static final String SEGMENTS_DIR_PATH = DB_DIR + "/segments/";
+
+    private final AttachmentStore attachmentStore = new AttachmentStore(ATTACHMENTS_DIR_PATH);
+    private final HeaderStore headerStore = new HeaderStore();
+    private final ThreadIndex threadIndex = new ThreadIndex();
+    private final MailEventBus eventBus = new MailEventBus();
+    private final SegmentStore segmentStore = new SegmentStore(SEGMENTS_DIR_PATH);
 
     public FileDataManager() {
         try {
@@ -23,6 +38,7 @@ public class FileDataManager implements IDataManager {
             System.err.println("Error creating database directory: " + e.getMessage());
         }
         reloadData();
+        attachmentStore.getCollector().sweepTempFiles();
     }
 
     private <T> List<T> loadData(String filename) {
@@ -46,7 +62,7 @@ public class FileDataManager implements IDataManager {
     private <T> void saveData(String filename, List<T> data) {
         synchronized (this) {
             try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-                oos.writeObject(data);
+                oos.writeObject(new ArrayList<>(data));
             } catch (IOException e) {
                 System.err.println("Error saving data to " + filename + ": " + e.getMessage());
             }
@@ -55,30 +71,212 @@ public class FileDataManager implements IDataManager {
 
     @Override
     public void reloadData() {
-        users = loadData(USERS_FILE_PATH);
-        emails = loadData(EMAILS_FILE_PATH);
-        if (users == null) users = new ArrayList<>();
-        if (emails == null) emails = new ArrayList<>();
+        loadBodyDictionaries();
+        List<User> loadedUsers = loadData(USERS_FILE_PATH);
+        List<Email> loadedEmails = loadData(EMAILS_FILE_PATH);
+        users = new CopyOnWriteArrayList<>(loadedUsers != null ? loadedUsers : new ArrayList<>());
+        emails = new CopyOnWriteArrayList<>(loadedEmails != null ? loadedEmails : new ArrayList<>());
+        shareContent(emails);
+        trainBodyDictionary(emails);
+        segmentStore.attach(emails);
+        attachmentStore.rebuild(emails);
+        mailboxState = loadMailboxState(emails);
+        headerStore.rebuild(emails);
+        threadIndex.rebuild(emails);
+        eventBus.publish(new MailEvent(MailEvent.Type.RELOADED, null));
+    }
+
+    // Serialization keeps shared references, so copies that point at one
+    // MessageContent are written once. Files from before content sharing hold
+    // equal copies per row; fold those onto one instance.
+    private void shareContent(List<Email> allEmails) {
+        Map<String, MessageContent> byMessageId = new HashMap<>();
+        for (Email email : allEmails) {
+            MessageContent shared = byMessageId.putIfAbsent(email.getMessageId(), email.content);
+            if (shared != null && shared != email.content && shared.equals(email.content)) {
+                email.content = shared;
+            }
+        }
+    }
+
+    // Dictionaries are kept oldest first; the last one is used for new bodies.
+    private void loadBodyDictionaries() {
+        synchronized (this) {
+            File file = new File(BODY_DICTIONARY_FILE_PATH);
+            if (!file.exists()) return;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] dictionary = new byte[in.readInt()];
+                    in.readFully(dictionary);
+                    BodyCodec.install(dictionary);
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading data from " + BODY_DICTIONARY_FILE_PATH + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Once the corpus is large enough, trains the body dictionary and rewrites
+    // emails.db with every body packed against it.
+    private void trainBodyDictionary(List<Email> allEmails) {
+        if (BodyCodec.hasDictionary()) return;
+        Set<MessageContent> contents = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Email email : allEmails) {
+            contents.add(email.getContent());
+        }
+        byte[] dictionary = MessageContent.trainDictionary(contents);
+        if (dictionary == null) return;
+
+        synchronized (this) {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(BODY_DICTIONARY_FILE_PATH))) {
+                out.writeInt(1);
+                out.writeInt(dictionary.length);
+                out.write(dictionary);
+            } catch (IOException e) {
+                System.err.println("Error saving data to " + BODY_DICTIONARY_FILE_PATH + ": " + e.getMessage());
+                return;
+            }
+        }
+        MessageContent.installDictionary(dictionary, contents);
+        saveData(EMAILS_FILE_PATH, allEmails);
+    }
+
+    private MailboxState loadMailboxState(List<Email> allEmails) {
+        MailboxState state = new MailboxState();
+        Map<String, Email> delivered = new HashMap<>();
+        boolean migrated = false;
+        for (Email email : allEmails) {
+            if (email.getStatus() == EmailStatus.DELIVERED) {
+                state.register(email);
+                delivered.put(email.getMessageId(), email);
+            } else if (MailboxState.isLegacyRecipientCopy(email)) {
+                state.migrate(email);
+                migrated = true;
+            }
+        }
+
+        synchronized (this) {
+            File file = new File(MAILBOX_STATE_FILE_PATH);
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String user = in.readUTF();
+                        String messageId = in.readUTF();
+                        EmailStatus status = EmailStatus.valueOf(in.readUTF());
+                        boolean read = in.readBoolean();
+                        long deferUntil = in.readLong();
+                        Email copy = delivered.get(messageId);
+                        if (copy != null) {
+                            state.put(user, copy, status, read, deferUntil);
+                        }
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Error loading data from " + MAILBOX_STATE_FILE_PATH + ": " + e.getMessage());
+                }
+            }
+        }
+
+        if (migrated) {
+            saveData(EMAILS_FILE_PATH, allEmails);
+            saveMailboxState(state);
+        }
+        return state;
+    }
+
+    private void saveMailboxState(MailboxState state) {
+        synchronized (this) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int[] count = { 0 };
+            try (DataOutputStream out = new DataOutputStream(buffer)) {
+                state.forEach((user, copy, status, read, deferUntil) -> {
+                    try {
+                        out.writeUTF(user);
+                        out.writeUTF(copy.getMessageId());
+                        out.writeUTF(status.name());
+                        out.writeBoolean(read);
+                        out.writeLong(deferUntil);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Error saving data to " + MAILBOX_STATE_FILE_PATH + ": " + e.getMessage());
+                return;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(MAILBOX_STATE_FILE_PATH))) {
+                out.writeInt(count[0]);
+                buffer.writeTo(out);
+            } catch (IOException e) {
+                System.err.println("Error saving data to " + MAILBOX_STATE_FILE_PATH + ": " + e.getMessage());
+            }
+        }
     }
 
     @Override
-    public String saveAttachment(File file) {
+    public String saveAttachment(File file, AttachmentTransfer transfer) {
         if (file == null || !file.exists()) return null;
         try {
-            String uniqueFilename = UUID.randomUUID().toString() + "-" + file.getName();
-            File destFile = new File(ATTACHMENTS_DIR_PATH + uniqueFilename);
-            Files.copy(file.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            return uniqueFilename; 
+            return attachmentStore.save(file, transfer);
         } catch (IOException e) {
-            System.err.println("Error saving attachment: " + e.getMessage());
-            return null;
+            throw new DataStoreException("Error saving attachment " + file.getName() + ": " + e.getMessage(), e);
         }
     }
-    
+
+    @Override
+    public void exportAttachment(String uniqueFilename, File target, AttachmentTransfer transfer) {
+        try {
+            attachmentStore.export(uniqueFilename, target, transfer);
+        } catch (IOException e) {
+            throw new DataStoreException("Error saving file: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream openAttachment(String uniqueFilename, long offset) {
+        try {
+            return attachmentStore.open(uniqueFilename, offset);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading attachment: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long getAttachmentSize(String uniqueFilename) {
+        return attachmentStore.size(uniqueFilename);
+    }
+
+    @Override
+    public AttachmentStore getAttachmentStore() { return attachmentStore; }
+
     @Override
-    public File getAttachment(String uniqueFilename) {
-        File file = new File(ATTACHMENTS_DIR_PATH + uniqueFilename);
-        return (file.exists() && file.isFile()) ? file : null;
+    public SegmentStore getSegmentStore() { return segmentStore; }
+
+    @Override
+    public HeaderStore getHeaderStore() { return headerStore; }
+
+    @Override
+    public ThreadIndex getThreadIndex() { return threadIndex; }
+
+    @Override
+    public MailEventBus getEventBus() { return eventBus; }
+
+    // Cold bodies are serialized as null, so emails.db shrinks with them.
+    @Override
+    public int tierColdMail(long cutoff) {
+        List<String> tiered;
+        try {
+            tiered = segmentStore.tier(emails, cutoff);
+        } catch (IOException e) {
+            throw new DataStoreException("Error moving old mail to cold storage: " + e.getMessage(), e);
+        }
+        if (!tiered.isEmpty()) {
+            saveData(EMAILS_FILE_PATH, emails);
+        }
+        return tiered.size();
     }
 
     @Override
@@ -90,6 +288,7 @@ public class FileDataManager implements IDataManager {
     public void addUser(User user) {
         users.add(user);
         saveData(USERS_FILE_PATH, users);
+        eventBus.publish(new MailEvent(MailEvent.Type.USER_ADDED, user.getEmailId()));
     }
     
     @Override
@@ -102,21 +301,146 @@ public class FileDataManager implements IDataManager {
 
         users.removeIf(u -> u.getEmailId().equalsIgnoreCase(user.getEmailId()));
         
-        emails.removeIf(e -> e.getFrom().equalsIgnoreCase(user.getEmailId()));
+        List<Email> removed = new ArrayList<>();
+        for (Email email : emails) {
+            if (email.getFrom().equalsIgnoreCase(user.getEmailId())) {
+                mailboxState.forget(email);
+                removed.add(email);
+            }
+        }
+        emails.removeAll(removed);
+        attachmentStore.unbindRemoved(removed, emails);
+        headerStore.removeAll(removed);
+        threadIndex.removeAll(removed);
+        mailboxState.removeUser(user.getEmailId());
         
         saveAll();
+        eventBus.publish(MailEvent.Type.DELETED, null, removed);
+        eventBus.publish(new MailEvent(MailEvent.Type.USER_REMOVED, user.getEmailId()));
     }
 
     @Override
     public void addEmail(Email email) {
         emails.add(email);
+        attachmentStore.bind(email.getMessageId(), email.getAttachmentPaths());
+        headerStore.put(email);
+        threadIndex.put(email);
+        saveData(EMAILS_FILE_PATH, emails);
+        eventBus.publish(MailEvent.Type.DELIVERED, null, Arrays.asList(email));
+    }
+
+    @Override
+    public void updateEmail(Email email) {
+        attachmentStore.bind(email.getMessageId(), email.getAttachmentPaths());
+        headerStore.put(email);
+        threadIndex.put(email);
+        saveData(EMAILS_FILE_PATH, emails);
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, Arrays.asList(email));
+    }
+
+    @Override
+    public void moveEmails(List<Email> emailsToMove, EmailStatus status) {
+        for (Email email : emailsToMove) {
+            email.setStatus(status);
+            headerStore.put(email);
+        }
+        saveData(EMAILS_FILE_PATH, emails);
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, emailsToMove);
+    }
+
+    @Override
+    public void deferEmails(List<Email> emailsToDefer, EmailStatus status, long until) {
+        for (Email email : emailsToDefer) {
+            email.deferUntil = until;
+            email.setStatus(status);
+            headerStore.put(email);
+        }
         saveData(EMAILS_FILE_PATH, emails);
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, emailsToDefer);
+    }
+
+    @Override
+    public void deleteEmails(List<Email> emailsToDelete) {
+        // Only the delivered copy carries the recipients' mailboxes; the
+        // sender's copies share its messageId.
+        for (Email email : emailsToDelete) {
+            if (email.getStatus() == EmailStatus.DELIVERED) {
+                mailboxState.forget(email);
+            }
+        }
+        emails.removeAll(emailsToDelete);
+        attachmentStore.unbindRemoved(emailsToDelete, emails);
+        headerStore.removeAll(emailsToDelete);
+        threadIndex.removeAll(emailsToDelete);
+        saveData(EMAILS_FILE_PATH, emails);
+        saveMailboxState(mailboxState);
+        eventBus.publish(MailEvent.Type.DELETED, null, emailsToDelete);
+    }
+
+    @Override
+    public MailboxState getMailboxState() { return mailboxState; }
+
+    @Override
+    public void deliverEmails(List<Email> recipientCopies) {
+        for (Email copy : recipientCopies) {
+            copy.setStatus(EmailStatus.DELIVERED);
+            headerStore.put(copy);
+            threadIndex.put(copy);
+            mailboxState.deliver(copy);
+        }
+        saveData(EMAILS_FILE_PATH, emails);
+        saveMailboxState(mailboxState);
+        eventBus.publish(MailEvent.Type.DELIVERED, null, recipientCopies);
+    }
+
+    @Override
+    public void moveInMailbox(String user, List<Email> emailsToMove, EmailStatus status, long deferUntil) {
+        for (Email email : emailsToMove) {
+            mailboxState.setStatus(user, email, status, deferUntil);
+        }
+        saveMailboxState(mailboxState);
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, user, emailsToMove);
+    }
+
+    @Override
+    public void markRead(String user, List<Email> emailsToMark, boolean read) {
+        boolean received = false;
+        boolean own = false;
+        for (Email email : emailsToMark) {
+            if (email.getStatus() == EmailStatus.DELIVERED) {
+                mailboxState.setRead(user, email, read);
+                received = true;
+            } else {
+                email.setRead(read);
+                own = true;
+            }
+        }
+        if (received) saveMailboxState(mailboxState);
+        if (own) saveData(EMAILS_FILE_PATH, emails);
+        eventBus.publish(MailEvent.Type.READ_CHANGED, user, emailsToMark);
+    }
+
+    @Override
+    public void removeFromMailbox(String user, List<Email> emailsToRemove) {
+        List<Email> orphaned = new ArrayList<>();
+        for (Email email : emailsToRemove) {
+            if (mailboxState.remove(user, email)) {
+                orphaned.add(email);
+            }
+        }
+        if (!orphaned.isEmpty()) {
+            deleteEmails(orphaned);
+        } else {
+            saveMailboxState(mailboxState);
+        }
+        eventBus.publish(MailEvent.Type.DELETED, user, emailsToRemove);
     }
 
     @Override
     public void saveAll() {
         saveData(EMAILS_FILE_PATH, emails);
         saveData(USERS_FILE_PATH, users);
+        saveMailboxState(mailboxState);
     }
 
 }
@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// Columnar index over the headers folder views filter and sort on: sender
+// address id, status and timestamp, one primitive array each, plus the Email
+// of every row. The data managers keep it in step with their email list, so
+// a folder is found by scanning int and byte arrays and sorted by sorting a
+// long[] instead of walking Email objects with a comparator. Rows of removed
+// emails are reused.
+//
+// Recipient folders come from MailboxState, which already keeps them as
+// per-user arrays; this index only decides their order.
+public class HeaderStore {
+    // Sort keys pack the timestamp above a position in the list being sorted.
+    private static final int POSITION_BITS = 21;
+    private static final int MAX_PACKED_SORT = 1 << POSITION_BITS;
+    private static final long MAX_PACKED_TIMESTAMP = (1L << (63 - POSITION_BITS)) - 1;
+
+    private Email[] rows = new Email[256];
+    private int[] senders = new int[256];
+    private byte[] statuses = new byte[256];
+    private long[] timestamps = new long[256];
+    private int size;
+    private int[] free = new int[16];
+    private int freeCount;
+    // StoreVersion stamp of the last change to each (sender, status) folder,
+    // indexed by sender * STATUS_COUNT + status.
+    private static final int STATUS_COUNT = EmailStatus.values().length;
+    private long[] versions = new long[256 * STATUS_COUNT];
+    private long rebuiltVersion = StoreVersion.next();
+
+    public synchronized void rebuild(List<Email> emails) {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        freeCount = 0;
+        Arrays.fill(versions, 0);
+        rebuiltVersion = StoreVersion.next();
+        for (Email email : emails) {
+            email.headerRow = 0;
+            put(email);
+        }
+    }
+
+    // Adds the email, or refreshes its row after its status or timestamp changed.
+    public synchronized void put(Email email) {
+        int row = email.headerRow - 1;
+        int sender = email.getFromId();
+        byte status = (byte) email.getStatus().ordinal();
+        long timestamp = email.getTimestamp();
+        if (row < 0 || rows[row] != email) {
+            row = allocate();
+            rows[row] = email;
+            email.headerRow = row + 1;
+        } else if (senders[row] == sender && statuses[row] == status && timestamps[row] == timestamp) {
+            return;
+        } else {
+            changed(senders[row], statuses[row]);
+        }
+        senders[row] = sender;
+        statuses[row] = status;
+        timestamps[row] = timestamp;
+        changed(sender, status);
+    }
+
+    public synchronized void remove(Email email) {
+        int row = email.headerRow - 1;
+        if (row < 0 || rows[row] != email) return;
+        changed(senders[row], statuses[row]);
+        rows[row] = null;
+        senders[row] = -1;
+        statuses[row] = -1;
+        email.headerRow = 0;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = row;
+    }
+
+    public synchronized boolean contains(Email email) {
+        int row = email.headerRow - 1;
+        return row >= 0 && row < size && rows[row] == email;
+    }
+
+    public synchronized void putAll(Collection<Email> emails) {
+        for (Email email : emails) {
+            put(email);
+        }
+    }
+
+    public synchronized void removeAll(Collection<Email> emails) {
+        for (Email email : emails) {
+            remove(email);
+        }
+    }
+
+    private void changed(int sender, byte status) {
+        if (sender < 0) return;
+        int slot = sender * STATUS_COUNT + status;
+        if (slot >= versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(versions.length * 2, slot + 1));
+        }
+        versions[slot] = StoreVersion.next();
+    }
+
+    // Changes whenever listOwn(user, status) would return something different.
+    public synchronized long getVersion(String user, EmailStatus status) {
+        int sender = AddressTable.find(user);
+        int slot = sender * STATUS_COUNT + status.ordinal();
+        long version = (sender >= 0 && slot < versions.length) ? versions[slot] : 0;
+        return Math.max(version, rebuiltVersion);
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return free[--freeCount];
+        if (size == rows.length) {
+            int capacity = size * 2;
+            rows = Arrays.copyOf(rows, capacity);
+            senders = Arrays.copyOf(senders, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        return size++;
+    }
+
+    // The user's own copies with the given status, in no particular order;
+    // NewestFirstPager orders them a page at a time.
+    public synchronized List<Email> listOwn(String user, EmailStatus status) {
+        List<Email> result = new ArrayList<>();
+        int sender = AddressTable.find(user);
+        if (sender < 0) return result;
+
+        byte code = (byte) status.ordinal();
+        for (int row : ParallelScan.filter(size, row -> senders[row] == sender && statuses[row] == code)) {
+            result.add(rows[row]);
+        }
+        return result;
+    }
+
+    // Timestamp column values for emails, in list order. Emails this index
+    // does not hold give their own timestamp.
+    public synchronized long[] timestamps(List<Email> emails) {
+        long[] times = new long[emails.size()];
+        for (int i = 0; i < times.length; i++) {
+            Email email = emails.get(i);
+            int row = email.headerRow - 1;
+            times[i] = (row >= 0 && row < size && rows[row] == email) ? timestamps[row] : email.getTimestamp();
+        }
+        return times;
+    }
+
+    // Positions of times from newest to oldest, ties in their original order,
+    // or null if the list or a timestamp is too large to pack into a sort key.
+    static int[] newestFirst(long[] times, int count) {
+        if (count > MAX_PACKED_SORT) return null;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (times[i] < 0 || times[i] > MAX_PACKED_TIMESTAMP) return null;
+            keys[i] = (times[i] << POSITION_BITS) | (MAX_PACKED_SORT - 1 - i);
+        }
+        ParallelScan.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = MAX_PACKED_SORT - 1 - (int) (keys[count - 1 - i] & (MAX_PACKED_SORT - 1));
+        }
+        return order;
+    }
+
+    public synchronized int size() {
+        return size - freeCount;
+    }
+
+    // Heap held by the columns, not counting the Emails they point to.
+    public synchronized long getColumnBytes() {
+        return (long) rows.length * (4 + 4 + 1 + 8) + (long) free.length * 4;
+    }
+}
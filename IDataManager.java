@@ -1,4 +1,5 @@
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
 
 public interface IDataManager {
@@ -11,8 +12,27 @@ public interface IDataManager {
 
     List<Email> getEmails();
     void addEmail(Email email);
+    void updateEmail(Email email);
+    void moveEmails(List<Email> emails, EmailStatus status);
+    void deferEmails(List<Email> emails, EmailStatus status, long until);
+    void deleteEmails(List<Email> emails);
 
-    String saveAttachment(File file);
-    File getAttachment(String uniqueFilename);
+    MailboxState getMailboxState();
+    void deliverEmails(List<Email> recipientCopies);
+    void moveInMailbox(String user, List<Email> emails, EmailStatus status, long deferUntil);
+    void markRead(String user, List<Email> emails, boolean read);
+    void removeFromMailbox(String user, List<Email> emails);
+
+    String saveAttachment(File file, AttachmentTransfer transfer);
+    void exportAttachment(String uniqueFilename, File target, AttachmentTransfer transfer);
+    InputStream openAttachment(String uniqueFilename, long offset);
+    long getAttachmentSize(String uniqueFilename);
+    AttachmentStore getAttachmentStore();
+
+    int tierColdMail(long cutoff);
+    SegmentStore getSegmentStore();
+    HeaderStore getHeaderStore();
+    ThreadIndex getThreadIndex();
+    MailEventBus getEventBus();
 
 }
@@ -1,20 +1,35 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
  
 public class JDBCDataManager implements IDataManager {
     private List<User> cachedUsers;
     private List<Email> cachedEmails;
+    private MailboxState mailboxState = new MailboxState();
  
     private static final String DB_URL = "jdbc:sqlite:database/mail_sql_v2.db";
     private static final String ATTACHMENTS_DIR_PATH = "database/attachments/"; 
+    // Separate from the file store's segments: compaction drops bodies this store does not hold.
+    private static final String SEGMENTS_DIR_PATH = "database/sql_segments/";
+    private static final int READ_POOL_SIZE = 4;
+
+    private final JDBCWriteQueue writer = new JDBCWriteQueue(DB_URL);
+    private final JDBCReadPool readPool = new JDBCReadPool(DB_URL, READ_POOL_SIZE);
+    private final AttachmentStore attachmentStore = new AttachmentStore(ATTACHMENTS_DIR_PATH);
+    private final HeaderStore headerStore = new HeaderStore();
+    private final ThreadIndex threadIndex = new ThreadIndex();
+    private final MailEventBus eventBus = new MailEventBus();
+    private final SegmentStore segmentStore = new SegmentStore(SEGMENTS_DIR_PATH);
 
     public JDBCDataManager() {
         try {
@@ -29,16 +44,29 @@ public class JDBCDataManager implements IDataManager {
             
             createTables();
             reloadData(); 
-        } catch (IOException | SQLException e) {
+            attachmentStore.getCollector().sweepTempFiles();
+        } catch (IOException | DataStoreException e) {
             e.printStackTrace();
         }
     }
 
-    private Connection connect() throws SQLException {
-        return DriverManager.getConnection(DB_URL);
+    private <T> T write(String action, JDBCWriteQueue.WriteCommand<T> command) {
+        try {
+            return writer.submit(command).join();
+        } catch (CompletionException e) {
+            throw new DataStoreException("Error " + action + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private <T> T read(String action, JDBCReadPool.ReadCommand<T> command) {
+        try {
+            return readPool.read(command);
+        } catch (SQLException e) {
+            throw new DataStoreException("Error " + action + ": " + e.getMessage(), e);
+        }
     }
 
-    private void createTables() throws SQLException {
+    private void createTables() {
         String sqlUsers = "CREATE TABLE IF NOT EXISTS users (\n"
                 + " name text NOT NULL,\n"
                 + " email text PRIMARY KEY,\n"
@@ -55,61 +83,278 @@ public class JDBCDataManager implements IDataManager {
                 + " attachments text,\n" 
                 + " timestamp integer,\n"
                 + " isRead integer,\n"
-                + " status text\n"
+                + " status text,\n"
+                + " deferUntil integer DEFAULT 0\n"
+                + ");";
+
+        String sqlMailboxState = "CREATE TABLE IF NOT EXISTS mailbox_state (\n"
+                + " user_email text NOT NULL,\n"
+                + " messageId text NOT NULL,\n"
+                + " status text NOT NULL,\n"
+                + " isRead integer,\n"
+                + " deferUntil integer DEFAULT 0,\n"
+                + " PRIMARY KEY (user_email, messageId)\n"
+                + ");";
+
+        String sqlMessageContent = "CREATE TABLE IF NOT EXISTS message_content (\n"
+                + " messageId text PRIMARY KEY,\n"
+                + " subject text,\n"
+                + " body text,\n"
+                + " attachments text,\n"
+                + " in_reply_to text,\n"
+                + " refs text\n"
                 + ");";
 
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(sqlUsers);
-            stmt.execute(sqlEmails);
+        String sqlBodyDictionary = "CREATE TABLE IF NOT EXISTS body_dictionary (\n"
+                + " seq INTEGER PRIMARY KEY AUTOINCREMENT,\n"
+                + " data blob NOT NULL\n"
+                + ");";
+
+        write("creating tables", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(sqlUsers);
+                stmt.execute(sqlEmails);
+                addColumnIfMissing(stmt, "emails", "deferUntil", "integer DEFAULT 0");
+                stmt.execute(sqlMailboxState);
+                stmt.execute(sqlMessageContent);
+                addColumnIfMissing(stmt, "message_content", "in_reply_to", "text");
+                addColumnIfMissing(stmt, "message_content", "refs", "text");
+                stmt.execute(sqlBodyDictionary);
+                migrateInlineContent(stmt);
+            }
+            migrateSharedCopies(conn);
+            return null;
+        });
+    }
+
+    // Older builds stored subject, body and attachments on every emails row.
+    // Move them into message_content (the newest row per messageId wins) and
+    // clear the inline columns.
+    private void migrateInlineContent(Statement stmt) throws SQLException {
+        String hasInline = " messageId IS NOT NULL AND (subject IS NOT NULL OR body IS NOT NULL OR attachments IS NOT NULL)";
+        stmt.executeUpdate("INSERT OR REPLACE INTO message_content(messageId, subject, body, attachments)"
+                + " SELECT messageId, subject, body, attachments FROM emails WHERE" + hasInline + " ORDER BY id");
+        stmt.executeUpdate("UPDATE emails SET subject = NULL, body = NULL, attachments = NULL WHERE" + hasInline);
+    }
+
+    private static List<String> splitList(String value) {
+        return (value == null || value.isEmpty()) ? new ArrayList<>() : new ArrayList<>(Arrays.asList(value.split(",")));
+    }
+
+    private void upsertContent(Connection conn, Email email) throws SQLException {
+        String sql = "INSERT INTO message_content(messageId, subject, body, attachments, in_reply_to, refs)"
+                + " VALUES(?,?,?,?,?,?)"
+                + " ON CONFLICT(messageId) DO UPDATE SET subject = excluded.subject, body = excluded.body,"
+                + " attachments = excluded.attachments, in_reply_to = excluded.in_reply_to, refs = excluded.refs";
+        MessageContent content = email.getContent();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, email.getMessageId());
+            pstmt.setString(2, email.getSubject());
+            pstmt.setBytes(3, content.getPackedBody());
+            pstmt.setString(4, String.join(",", email.getAttachmentPaths()));
+            pstmt.setString(5, content.getInReplyTo());
+            pstmt.setString(6, String.join(",", content.getReferences()));
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Drops content no remaining emails row refers to.
+    private void deleteOrphanedContent(Connection conn, List<Email> emails) throws SQLException {
+        String sql = "DELETE FROM message_content WHERE messageId = ?"
+                + " AND NOT EXISTS (SELECT 1 FROM emails WHERE messageId = ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Email email : emails) {
+                pstmt.setString(1, email.getMessageId());
+                pstmt.setString(2, email.getMessageId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    // Older builds kept one recipient copy whose status and read flag were shared
+    // by every recipient. Split each into per-recipient rows and mark the copy
+    // DELIVERED; runs on every start so rows written by an old build are picked up.
+    private void migrateSharedCopies(Connection conn) throws SQLException {
+        String selectLegacy = "SELECT id, messageId, recipients, isRead, status, deferUntil FROM emails"
+                + " WHERE status IN ('INBOX', 'ARCHIVED', 'DELETED', 'SNOOZED')";
+        String insertState = "INSERT OR IGNORE INTO mailbox_state(user_email, messageId, status, isRead, deferUntil) VALUES(?,?,?,?,?)";
+        String markDelivered = "UPDATE emails SET status = 'DELIVERED' WHERE id = ?";
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(selectLegacy);
+             PreparedStatement insert = conn.prepareStatement(insertState);
+             PreparedStatement update = conn.prepareStatement(markDelivered)) {
+            while (rs.next()) {
+                String recipients = rs.getString("recipients");
+                String status = rs.getString("status");
+                for (String recipient : recipients.isEmpty() ? new String[0] : recipients.split(",")) {
+                    insert.setString(1, recipient.toLowerCase());
+                    insert.setString(2, rs.getString("messageId"));
+                    insert.setString(3, status);
+                    insert.setInt(4, rs.getInt("isRead"));
+                    insert.setLong(5, "SNOOZED".equals(status) ? rs.getLong("deferUntil") : 0);
+                    insert.addBatch();
+                }
+                update.setLong(1, rs.getLong("id"));
+                update.addBatch();
+            }
+            insert.executeBatch();
+            update.executeBatch();
+        }
+    }
+
+    private void addColumnIfMissing(Statement stmt, String table, String column, String type) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) return;
+            }
         }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
     }
 
     @Override
     public void reloadData() {
-        cachedUsers = new ArrayList<>();
-        cachedEmails = new ArrayList<>();
+        List<User> loadedUsers = new ArrayList<>();
+        List<Email> loadedEmails = new ArrayList<>();
 
         String selectUsers = "SELECT * FROM users";
         String selectEmails = "SELECT * FROM emails";
+        String selectContent = "SELECT * FROM message_content";
+        String selectMailboxState = "SELECT * FROM mailbox_state";
+        String selectDictionaries = "SELECT data FROM body_dictionary ORDER BY seq";
+        MailboxState loadedState = new MailboxState();
+        Map<String, MessageContent> contents = new HashMap<>();
+        // Bodies still stored as text, by rows written before compression.
+        Map<String, MessageContent> unpacked = new HashMap<>();
 
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
-            
-       
-            ResultSet rsUsers = stmt.executeQuery(selectUsers);
-            while (rsUsers.next()) {
-                cachedUsers.add(new User(
-                    rsUsers.getString("name"),
-                    rsUsers.getString("email"),
-                    rsUsers.getString("password")
-                ));
-            }
- 
-            ResultSet rsEmails = stmt.executeQuery(selectEmails);
-            while (rsEmails.next()) {
-                String toStr = rsEmails.getString("recipients");
-                List<String> toList = toStr.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(toStr.split(",")));
-                
-                String attachStr = rsEmails.getString("attachments");
-                List<String> attachList = (attachStr == null || attachStr.isEmpty()) ? new ArrayList<>() : new ArrayList<>(Arrays.asList(attachStr.split(",")));
-
-                Email email = new Email(
-                    rsEmails.getString("messageId"),
-                    rsEmails.getString("sender"),
-                    toList,
-                    rsEmails.getString("subject"),
-                    rsEmails.getString("body"),
-                    attachList,
-                    EmailStatus.valueOf(rsEmails.getString("status"))
-                );
-                email.setRead(rsEmails.getInt("isRead") == 1);
-                cachedEmails.add(email);
+        read("loading data", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                ResultSet rsUsers = stmt.executeQuery(selectUsers);
+                while (rsUsers.next()) {
+                    loadedUsers.add(new User(
+                        rsUsers.getString("name"),
+                        rsUsers.getString("email"),
+                        rsUsers.getString("password")
+                    ));
+                }
+
+                ResultSet rsDictionaries = stmt.executeQuery(selectDictionaries);
+                while (rsDictionaries.next()) {
+                    BodyCodec.install(rsDictionaries.getBytes("data"));
+                }
+
+                ResultSet rsContent = stmt.executeQuery(selectContent);
+                while (rsContent.next()) {
+                    String messageId = rsContent.getString("messageId");
+                    String subject = rsContent.getString("subject");
+                    List<String> attachments = splitList(rsContent.getString("attachments"));
+                    String inReplyTo = rsContent.getString("in_reply_to");
+                    List<String> references = splitList(rsContent.getString("refs"));
+                    Object body = rsContent.getObject("body");
+                    if (body == null || body instanceof byte[]) {
+                        // A null body is cold and is attached from its segment below.
+                        contents.put(messageId, MessageContent.packed(subject, (byte[]) body, attachments, inReplyTo,
+                                references));
+                    } else {
+                        MessageContent content = new MessageContent(subject, (String) body, attachments, inReplyTo,
+                                references);
+                        contents.put(messageId, content);
+                        unpacked.put(messageId, content);
+                    }
+                }
+
+                ResultSet rsEmails = stmt.executeQuery(selectEmails);
+                while (rsEmails.next()) {
+                    String messageId = rsEmails.getString("messageId");
+                    MessageContent content = (messageId != null) ? contents.get(messageId) : null;
+                    if (content == null) {
+                        content = new MessageContent(
+                            rsEmails.getString("subject"),
+                            rsEmails.getString("body"),
+                            splitList(rsEmails.getString("attachments"))
+                        );
+                    }
+
+                    Email email = new Email(
+                        messageId,
+                        rsEmails.getString("sender"),
+                        splitList(rsEmails.getString("recipients")),
+                        content,
+                        EmailStatus.valueOf(rsEmails.getString("status"))
+                    );
+                    email.setRead(rsEmails.getInt("isRead") == 1);
+                    email.timestamp = rsEmails.getLong("timestamp");
+                    email.deferUntil = rsEmails.getLong("deferUntil");
+                    email.rowId = rsEmails.getLong("id");
+                    loadedEmails.add(email);
+                }
+
+                Map<String, Email> delivered = new HashMap<>();
+                for (Email email : loadedEmails) {
+                    if (email.getStatus() == EmailStatus.DELIVERED) {
+                        loadedState.register(email);
+                        delivered.put(email.getMessageId(), email);
+                    }
+                }
+
+                ResultSet rsState = stmt.executeQuery(selectMailboxState);
+                while (rsState.next()) {
+                    Email copy = delivered.get(rsState.getString("messageId"));
+                    if (copy == null) continue;
+                    loadedState.put(
+                        rsState.getString("user_email"),
+                        copy,
+                        EmailStatus.valueOf(rsState.getString("status")),
+                        rsState.getInt("isRead") == 1,
+                        rsState.getLong("deferUntil")
+                    );
+                }
             }
-            
-        } catch (SQLException e) {
-            System.err.println("JDBC Load Error: " + e.getMessage());
+            return null;
+        });
+
+        cachedUsers = new CopyOnWriteArrayList<>(loadedUsers);
+        cachedEmails = new CopyOnWriteArrayList<>(loadedEmails);
+        mailboxState = loadedState;
+        attachmentStore.rebuild(cachedEmails);
+        headerStore.rebuild(cachedEmails);
+        threadIndex.rebuild(cachedEmails);
+        packBodies(contents, unpacked);
+        segmentStore.attach(cachedEmails);
+        eventBus.publish(new MailEvent(MailEvent.Type.RELOADED, null));
+    }
+
+    // Once the corpus is large enough, trains the body dictionary and packs
+    // every body against it; otherwise only text bodies left by older rows
+    // are packed.
+    private void packBodies(Map<String, MessageContent> contents, Map<String, MessageContent> unpacked) {
+        byte[] dictionary = BodyCodec.hasDictionary() ? null : MessageContent.trainDictionary(contents.values());
+        if (dictionary == null && unpacked.isEmpty()) return;
+
+        if (dictionary != null) {
+            write("saving body dictionary", conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO body_dictionary(data) VALUES(?)")) {
+                    pstmt.setBytes(1, dictionary);
+                    pstmt.executeUpdate();
+                }
+                return null;
+            });
+            MessageContent.installDictionary(dictionary, contents.values());
         }
+
+        Map<String, MessageContent> repack = (dictionary != null) ? contents : unpacked;
+        write("packing message bodies", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement("UPDATE message_content SET body = ? WHERE messageId = ?")) {
+                for (Map.Entry<String, MessageContent> entry : repack.entrySet()) {
+                    pstmt.setBytes(1, entry.getValue().getPackedBody());
+                    pstmt.setString(2, entry.getKey());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            return null;
+        });
     }
 
     @Override
@@ -126,41 +371,39 @@ public class JDBCDataManager implements IDataManager {
     @Override
     public void addUser(User user) {
         String sql = "INSERT INTO users(name, email, password) VALUES(?,?,?)";
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, user.getName());
-            pstmt.setString(2, user.getEmailId());
-            pstmt.setString(3, user.getPasswordHash());
-            pstmt.executeUpdate();
-            cachedUsers.add(user);
-        } catch (SQLException e) {
-            System.err.println("Error adding user: " + e.getMessage());
-        }
+        write("adding user", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, user.getName());
+                pstmt.setString(2, user.getEmailId());
+                pstmt.setString(3, user.getPasswordHash());
+                return pstmt.executeUpdate();
+            }
+        });
+        cachedUsers.add(user);
+        eventBus.publish(new MailEvent(MailEvent.Type.USER_ADDED, user.getEmailId()));
     }
     
  
     @Override
     public void updateUser(User user) {
         String sql = "UPDATE users SET name = ?, password = ? WHERE email = ?";
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, user.getName());
-            pstmt.setString(2, user.getPasswordHash());
-            pstmt.setString(3, user.getEmailId());
-            pstmt.executeUpdate();
-  
-        } catch (SQLException e) {
-            System.err.println("Error updating user: " + e.getMessage());
-        }
+        write("updating user", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, user.getName());
+                pstmt.setString(2, user.getPasswordHash());
+                pstmt.setString(3, user.getEmailId());
+                return pstmt.executeUpdate();
+            }
+        });
     }
 
     @Override
     public void deleteUser(User user) {
         String sqlUser = "DELETE FROM users WHERE email = ?";
         String sqlEmails = "DELETE FROM emails WHERE sender = ?"; // Clean up sent mails
+        String sqlState = "DELETE FROM mailbox_state WHERE user_email = ?";
         
-        try (Connection conn = connect()) {
-  
+        write("deleting user", conn -> {
             try (PreparedStatement pstmt = conn.prepareStatement(sqlUser)) {
                 pstmt.setString(1, user.getEmailId());
                 pstmt.executeUpdate();
@@ -169,53 +412,344 @@ public class JDBCDataManager implements IDataManager {
                 pstmt.setString(1, user.getEmailId());
                 pstmt.executeUpdate();
             }
+            try (PreparedStatement pstmt = conn.prepareStatement(sqlState)) {
+                pstmt.setString(1, user.getEmailId().toLowerCase());
+                pstmt.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM message_content WHERE messageId NOT IN"
+                        + " (SELECT messageId FROM emails WHERE messageId IS NOT NULL)");
+            }
+            return null;
+        });
       
-            cachedUsers.removeIf(u -> u.getEmailId().equalsIgnoreCase(user.getEmailId()));
-            cachedEmails.removeIf(e -> e.getFrom().equalsIgnoreCase(user.getEmailId()));
-            
-        } catch (SQLException e) {
-            System.err.println("Error deleting user: " + e.getMessage());
+        cachedUsers.removeIf(u -> u.getEmailId().equalsIgnoreCase(user.getEmailId()));
+        List<Email> removed = new ArrayList<>();
+        for (Email email : cachedEmails) {
+            if (email.getFrom().equalsIgnoreCase(user.getEmailId())) {
+                mailboxState.forget(email);
+                removed.add(email);
+            }
         }
+        cachedEmails.removeAll(removed);
+        attachmentStore.unbindRemoved(removed, cachedEmails);
+        headerStore.removeAll(removed);
+        threadIndex.removeAll(removed);
+        mailboxState.removeUser(user.getEmailId());
+        eventBus.publish(MailEvent.Type.DELETED, null, removed);
+        eventBus.publish(new MailEvent(MailEvent.Type.USER_REMOVED, user.getEmailId()));
     }
 
     @Override
     public void addEmail(Email email) {
-        String sql = "INSERT INTO emails(messageId, sender, recipients, subject, body, attachments, timestamp, isRead, status) VALUES(?,?,?,?,?,?,?,?,?)";
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, email.getMessageId());
-            pstmt.setString(2, email.getFrom());
-            pstmt.setString(3, String.join(",", email.getTo()));
-            pstmt.setString(4, email.getSubject());
-            pstmt.setString(5, email.getBody());
-            pstmt.setString(6, String.join(",", email.getAttachmentPaths()));
-            pstmt.setLong(7, email.getTimestamp());
-            pstmt.setInt(8, email.isRead() ? 1 : 0);
-            pstmt.setString(9, email.getStatus().toString());
-            pstmt.executeUpdate();
-            cachedEmails.add(email);
-        } catch (SQLException e) {
-             System.err.println("Error adding email: " + e.getMessage());
+        String sql = "INSERT INTO emails(messageId, sender, recipients, timestamp, isRead, status, deferUntil) VALUES(?,?,?,?,?,?,?)";
+        email.rowId = write("adding email", conn -> {
+            upsertContent(conn, email);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setString(1, email.getMessageId());
+                pstmt.setString(2, email.getFrom());
+                pstmt.setString(3, String.join(",", email.getTo()));
+                pstmt.setLong(4, email.getTimestamp());
+                pstmt.setInt(5, email.isRead() ? 1 : 0);
+                pstmt.setString(6, email.getStatus().toString());
+                pstmt.setLong(7, email.getDeferUntil());
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    return keys.next() ? keys.getLong(1) : 0L;
+                }
+            }
+        });
+        cachedEmails.add(email);
+        attachmentStore.bind(email.getMessageId(), email.getAttachmentPaths());
+        headerStore.put(email);
+        threadIndex.put(email);
+        eventBus.publish(MailEvent.Type.DELIVERED, null, Arrays.asList(email));
+    }
+
+    @Override
+    public void updateEmail(Email email) {
+        String sql = "UPDATE emails SET recipients = ?, isRead = ?, status = ? WHERE id = ?";
+        write("updating email", conn -> {
+            upsertContent(conn, email);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, String.join(",", email.getTo()));
+                pstmt.setInt(2, email.isRead() ? 1 : 0);
+                pstmt.setString(3, email.getStatus().toString());
+                pstmt.setLong(4, email.rowId);
+                return pstmt.executeUpdate();
+            }
+        });
+        attachmentStore.bind(email.getMessageId(), email.getAttachmentPaths());
+        headerStore.put(email);
+        threadIndex.put(email);
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, Arrays.asList(email));
+    }
+
+    @Override
+    public void moveEmails(List<Email> emails, EmailStatus status) {
+        String sql = "UPDATE emails SET status = ? WHERE id = ?";
+        write("moving emails", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Email email : emails) {
+                    pstmt.setString(1, status.toString());
+                    pstmt.setLong(2, email.rowId);
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            }
+        });
+        for (Email email : emails) {
+            email.setStatus(status);
+            headerStore.put(email);
+        }
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, emails);
+    }
+
+    @Override
+    public void deferEmails(List<Email> emails, EmailStatus status, long until) {
+        String sql = "UPDATE emails SET status = ?, deferUntil = ? WHERE id = ?";
+        write("deferring emails", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Email email : emails) {
+                    pstmt.setString(1, status.toString());
+                    pstmt.setLong(2, until);
+                    pstmt.setLong(3, email.rowId);
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            }
+        });
+        for (Email email : emails) {
+            email.deferUntil = until;
+            email.setStatus(status);
+            headerStore.put(email);
+        }
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, null, emails);
+    }
+
+    @Override
+    public void deleteEmails(List<Email> emails) {
+        String sql = "DELETE FROM emails WHERE id = ?";
+        String sqlState = "DELETE FROM mailbox_state WHERE messageId = ?";
+        write("deleting emails", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 PreparedStatement state = conn.prepareStatement(sqlState)) {
+                for (Email email : emails) {
+                    pstmt.setLong(1, email.rowId);
+                    pstmt.addBatch();
+                    if (email.getStatus() == EmailStatus.DELIVERED) {
+                        state.setString(1, email.getMessageId());
+                        state.addBatch();
+                    }
+                }
+                state.executeBatch();
+                pstmt.executeBatch();
+            }
+            deleteOrphanedContent(conn, emails);
+            return null;
+        });
+        for (Email email : emails) {
+            if (email.getStatus() == EmailStatus.DELIVERED) {
+                mailboxState.forget(email);
+            }
+        }
+        cachedEmails.removeAll(emails);
+        attachmentStore.unbindRemoved(emails, cachedEmails);
+        headerStore.removeAll(emails);
+        threadIndex.removeAll(emails);
+        eventBus.publish(MailEvent.Type.DELETED, null, emails);
+    }
+
+    @Override
+    public MailboxState getMailboxState() { return mailboxState; }
+
+    @Override
+    public void deliverEmails(List<Email> recipientCopies) {
+        String sqlDelivered = "UPDATE emails SET status = 'DELIVERED' WHERE id = ?";
+        String sqlState = "INSERT OR IGNORE INTO mailbox_state(user_email, messageId, status, isRead, deferUntil) VALUES(?,?,'INBOX',0,0)";
+        write("delivering emails", conn -> {
+            try (PreparedStatement delivered = conn.prepareStatement(sqlDelivered);
+                 PreparedStatement state = conn.prepareStatement(sqlState)) {
+                for (Email copy : recipientCopies) {
+                    delivered.setLong(1, copy.rowId);
+                    delivered.addBatch();
+                    for (String recipient : copy.getTo()) {
+                        state.setString(1, recipient.toLowerCase());
+                        state.setString(2, copy.getMessageId());
+                        state.addBatch();
+                    }
+                }
+                delivered.executeBatch();
+                return state.executeBatch();
+            }
+        });
+        for (Email copy : recipientCopies) {
+            copy.setStatus(EmailStatus.DELIVERED);
+            headerStore.put(copy);
+            threadIndex.put(copy);
+            mailboxState.deliver(copy);
+        }
+        eventBus.publish(MailEvent.Type.DELIVERED, null, recipientCopies);
+    }
+
+    @Override
+    public void moveInMailbox(String user, List<Email> emails, EmailStatus status, long deferUntil) {
+        String sql = "UPDATE mailbox_state SET status = ?, deferUntil = ? WHERE user_email = ? AND messageId = ?";
+        write("moving emails", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Email email : emails) {
+                    pstmt.setString(1, status.toString());
+                    pstmt.setLong(2, deferUntil);
+                    pstmt.setString(3, user.toLowerCase());
+                    pstmt.setString(4, email.getMessageId());
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            }
+        });
+        for (Email email : emails) {
+            mailboxState.setStatus(user, email, status, deferUntil);
+        }
+        eventBus.publish(MailEvent.Type.STATUS_CHANGED, user, emails);
+    }
+
+    @Override
+    public void markRead(String user, List<Email> emails, boolean read) {
+        String sqlState = "UPDATE mailbox_state SET isRead = ? WHERE user_email = ? AND messageId = ?";
+        String sqlOwn = "UPDATE emails SET isRead = ? WHERE id = ?";
+        write("marking emails read", conn -> {
+            try (PreparedStatement state = conn.prepareStatement(sqlState);
+                 PreparedStatement own = conn.prepareStatement(sqlOwn)) {
+                for (Email email : emails) {
+                    if (email.getStatus() == EmailStatus.DELIVERED) {
+                        state.setInt(1, read ? 1 : 0);
+                        state.setString(2, user.toLowerCase());
+                        state.setString(3, email.getMessageId());
+                        state.addBatch();
+                    } else {
+                        own.setInt(1, read ? 1 : 0);
+                        own.setLong(2, email.rowId);
+                        own.addBatch();
+                    }
+                }
+                state.executeBatch();
+                return own.executeBatch();
+            }
+        });
+        for (Email email : emails) {
+            if (email.getStatus() == EmailStatus.DELIVERED) {
+                mailboxState.setRead(user, email, read);
+            } else {
+                email.setRead(read);
+            }
         }
+        eventBus.publish(MailEvent.Type.READ_CHANGED, user, emails);
+    }
+
+    @Override
+    public void removeFromMailbox(String user, List<Email> emails) {
+        String sqlState = "DELETE FROM mailbox_state WHERE user_email = ? AND messageId = ?";
+        String sqlOrphan = "DELETE FROM emails WHERE id = ? AND NOT EXISTS (SELECT 1 FROM mailbox_state WHERE messageId = ?)";
+        write("deleting emails", conn -> {
+            try (PreparedStatement state = conn.prepareStatement(sqlState);
+                 PreparedStatement orphan = conn.prepareStatement(sqlOrphan)) {
+                for (Email email : emails) {
+                    state.setString(1, user.toLowerCase());
+                    state.setString(2, email.getMessageId());
+                    state.addBatch();
+                    orphan.setLong(1, email.rowId);
+                    orphan.setString(2, email.getMessageId());
+                    orphan.addBatch();
+                }
+                state.executeBatch();
+                orphan.executeBatch();
+            }
+            deleteOrphanedContent(conn, emails);
+            return null;
+        });
+        List<Email> orphaned = new ArrayList<>();
+        for (Email email : emails) {
+            if (mailboxState.remove(user, email)) {
+                mailboxState.forget(email);
+                orphaned.add(email);
+            }
+        }
+        cachedEmails.removeAll(orphaned);
+        attachmentStore.unbindRemoved(orphaned, cachedEmails);
+        headerStore.removeAll(orphaned);
+        threadIndex.removeAll(orphaned);
+        eventBus.publish(MailEvent.Type.DELETED, null, orphaned);
+        eventBus.publish(MailEvent.Type.DELETED, user, emails);
     }
     
     @Override
-    public String saveAttachment(File file) {
+    public String saveAttachment(File file, AttachmentTransfer transfer) {
         if (file == null || !file.exists()) return null;
         try {
-            String uniqueFilename = UUID.randomUUID().toString() + "-" + file.getName();
-            File destFile = new File(ATTACHMENTS_DIR_PATH + uniqueFilename);
-            Files.copy(file.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            return uniqueFilename; 
+            return attachmentStore.save(file, transfer);
         } catch (IOException e) {
-            return null;
+            throw new DataStoreException("Error saving attachment " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void exportAttachment(String uniqueFilename, File target, AttachmentTransfer transfer) {
+        try {
+            attachmentStore.export(uniqueFilename, target, transfer);
+        } catch (IOException e) {
+            throw new DataStoreException("Error saving file: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream openAttachment(String uniqueFilename, long offset) {
+        try {
+            return attachmentStore.open(uniqueFilename, offset);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading attachment: " + e.getMessage(), e);
         }
     }
 
     @Override
-    public File getAttachment(String uniqueFilename) {
-        File file = new File(ATTACHMENTS_DIR_PATH + uniqueFilename);
-        return (file.exists() && file.isFile()) ? file : null;
+    public long getAttachmentSize(String uniqueFilename) {
+        return attachmentStore.size(uniqueFilename);
+    }
+
+    @Override
+    public AttachmentStore getAttachmentStore() { return attachmentStore; }
+
+    @Override
+    public SegmentStore getSegmentStore() { return segmentStore; }
+
+    @Override
+    public HeaderStore getHeaderStore() { return headerStore; }
+
+    @Override
+    public ThreadIndex getThreadIndex() { return threadIndex; }
+
+    @Override
+    public MailEventBus getEventBus() { return eventBus; }
+
+    @Override
+    public int tierColdMail(long cutoff) {
+        List<String> tiered;
+        try {
+            tiered = segmentStore.tier(cachedEmails, cutoff);
+        } catch (IOException e) {
+            throw new DataStoreException("Error moving old mail to cold storage: " + e.getMessage(), e);
+        }
+        if (tiered.isEmpty()) return 0;
+        write("moving old mail to cold storage", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement("UPDATE message_content SET body = NULL WHERE messageId = ?")) {
+                for (String messageId : tiered) {
+                    pstmt.setString(1, messageId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            return null;
+        });
+        return tiered.size();
     }
 
 }
@@ -0,0 +1,88 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fixed pool of query-only connections. With the writer in WAL mode, readers
+// see the last committed snapshot and never wait on the write lock.
+public class JDBCReadPool {
+
+    public interface ReadCommand<T> {
+        T execute(Connection conn) throws SQLException;
+    }
+
+    private final String url;
+    private final int maxConnections;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    public JDBCReadPool(String url, int maxConnections) {
+        this.url = url;
+        this.maxConnections = maxConnections;
+        this.idle = new ArrayBlockingQueue<>(maxConnections);
+    }
+
+    public <T> T read(ReadCommand<T> command) throws SQLException {
+        Connection conn = acquire();
+        boolean reusable = false;
+        try {
+            T result = command.execute(conn);
+            reusable = true;
+            return result;
+        } finally {
+            // A connection whose command threw anything is closed rather
+            // than returned, so a bad one cannot be handed out again.
+            if (reusable) {
+                idle.offer(conn);
+            } else {
+                discard(conn);
+            }
+        }
+    }
+
+    private Connection acquire() throws SQLException {
+        while (true) {
+            Connection conn = idle.poll();
+            if (conn != null) return conn;
+
+            if (openConnections.incrementAndGet() <= maxConnections) {
+                try {
+                    return open();
+                } catch (SQLException e) {
+                    openConnections.decrementAndGet();
+                    throw e;
+                }
+            }
+            openConnections.decrementAndGet();
+
+            try {
+                conn = idle.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a read connection", e);
+            }
+            if (conn != null) return conn;
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            stmt.execute("PRAGMA query_only = true");
+        }
+        return conn;
+    }
+
+    private void discard(Connection conn) {
+        openConnections.decrementAndGet();
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+// Single writer for the SQLite database. Producers enqueue commands; the writer
+// thread drains whatever is queued and applies it in one transaction, with a
+// savepoint per command so one failing write does not take the batch down,
+// and nothing a command throws stops the writer thread.
+public class JDBCWriteQueue {
+
+    public interface WriteCommand<T> {
+        T execute(Connection conn) throws SQLException;
+    }
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static class PendingWrite<T> {
+        final WriteCommand<T> command;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        T value;
+
+        PendingWrite(WriteCommand<T> command) {
+            this.command = command;
+        }
+
+        void apply(Connection conn) throws SQLException {
+            value = command.execute(conn);
+        }
+
+        void complete() {
+            result.complete(value);
+        }
+    }
+
+    private final String url;
+    private final BlockingQueue<PendingWrite<?>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private Connection connection;
+
+    public JDBCWriteQueue(String url) {
+        this.url = url;
+        this.writerThread = new Thread(this::run, "mailcm-jdbc-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public <T> CompletableFuture<T> submit(WriteCommand<T> command) {
+        PendingWrite<T> write = new PendingWrite<>(command);
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.result.completeExceptionally(e);
+        }
+        return write.result;
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null) {
+            connection = DriverManager.getConnection(url);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = WAL");
+                stmt.execute("PRAGMA synchronous = NORMAL");
+                stmt.execute("PRAGMA busy_timeout = 5000");
+            }
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            try {
+                writeBatch(batch);
+            } catch (RuntimeException | Error e) {
+                // Whatever happens to one batch, the writer keeps serving the
+                // queue; callers waiting on these writes get the failure.
+                System.err.println("JDBC writer failed a batch: " + e);
+                resetConnection();
+                for (PendingWrite<?> write : batch) {
+                    write.result.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingWrite<?>> batch) {
+        List<PendingWrite<?>> applied = new ArrayList<>();
+        try {
+            Connection conn = connection();
+            for (PendingWrite<?> write : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    write.apply(conn);
+                    conn.releaseSavepoint(savepoint);
+                    applied.add(write);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback(savepoint);
+                    write.result.completeExceptionally(e);
+                }
+            }
+            conn.commit();
+            for (PendingWrite<?> write : applied) {
+                write.complete();
+            }
+        } catch (SQLException e) {
+            resetConnection();
+            for (PendingWrite<?> write : batch) {
+                write.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void resetConnection() {
+        if (connection == null) return;
+        try {
+            connection.rollback();
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+        connection = null;
+    }
+}
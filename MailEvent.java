@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What a data manager changed, published on its MailEventBus after the change
+// is stored. user is the mailbox the change applies to, or null when it
+// concerns the emails themselves and every view that lists them.
+public class MailEvent {
+
+    public enum Type {
+        DELIVERED,
+        STATUS_CHANGED,
+        READ_CHANGED,
+        DELETED,
+        USER_ADDED,
+        USER_REMOVED,
+        // Everything may have changed; views reload.
+        RELOADED
+    }
+
+    private final Type type;
+    private final String user;
+    private final List<Email> emails;
+
+    public MailEvent(Type type, String user, List<Email> emails) {
+        this.type = type;
+        this.user = user;
+        this.emails = Collections.unmodifiableList(new ArrayList<>(emails));
+    }
+
+    public MailEvent(Type type, String user) {
+        this(type, user, Collections.emptyList());
+    }
+
+    public Type getType() { return type; }
+    public String getUser() { return user; }
+    public List<Email> getEmails() { return emails; }
+
+    // True if the change can affect what user sees.
+    public boolean concerns(String viewer) {
+        return user == null || user.equalsIgnoreCase(viewer);
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + ((user != null) ? user + ", " : "") + emails.size() + " emails)";
+    }
+}
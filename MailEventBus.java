@@ -0,0 +1,38 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Publishes MailEvents to listeners on the thread that made the change,
+// usually a data manager worker. Listeners that touch Swing hand the event
+// to the event thread themselves.
+public class MailEventBus {
+
+    public interface Listener {
+        void onMailEvent(MailEvent event);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void publish(MailEvent event) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onMailEvent(event);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling " + event + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void publish(MailEvent.Type type, String user, List<Email> emails) {
+        if (!emails.isEmpty()) {
+            publish(new MailEvent(type, user, emails));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Per-recipient folder and read state for delivered messages. A delivered
+// message is stored once (status DELIVERED); each recipient's view of it is a
+// (message index, state byte) pair in that user's mailbox, i.e. 5 bytes per
+// recipient. Message indexes grow monotonically, so each mailbox stays sorted
+// and lookups are a binary search.
+public class MailboxState {
+
+    public interface EntryConsumer {
+        void accept(String user, Email copy, EmailStatus status, boolean read, long deferUntil);
+    }
+
+    private static final int READ_FLAG = 0x10;
+    private static final int FOLDER_MASK = 0x0F;
+    private static final EmailStatus[] FOLDERS = {
+        null, EmailStatus.INBOX, EmailStatus.ARCHIVED, EmailStatus.DELETED, EmailStatus.SNOOZED
+    };
+
+    private static final class UserMailbox {
+        int[] messages = new int[8];
+        byte[] states = new byte[8];
+        int size;
+        Map<Integer, Long> deferUntil = new HashMap<>();
+        // StoreVersion stamp of the last change to each folder.
+        final long[] versions = new long[FOLDERS.length];
+
+        int find(int message) {
+            return Arrays.binarySearch(messages, 0, size, message);
+        }
+
+        void put(int message, int state) {
+            int pos = find(message);
+            if (pos >= 0) {
+                int folder = states[pos] & FOLDER_MASK;
+                if (folder != (state & FOLDER_MASK)) {
+                    versions[folder] = StoreVersion.next();
+                    versions[state & FOLDER_MASK] = StoreVersion.next();
+                }
+                states[pos] = (byte) state;
+                return;
+            }
+            pos = -pos - 1;
+            versions[state & FOLDER_MASK] = StoreVersion.next();
+            if (size == messages.length) {
+                messages = Arrays.copyOf(messages, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            System.arraycopy(messages, pos, messages, pos + 1, size - pos);
+            System.arraycopy(states, pos, states, pos + 1, size - pos);
+            messages[pos] = message;
+            states[pos] = (byte) state;
+            size++;
+        }
+
+        boolean remove(int message) {
+            int pos = find(message);
+            if (pos < 0) return false;
+            versions[states[pos] & FOLDER_MASK] = StoreVersion.next();
+            System.arraycopy(messages, pos + 1, messages, pos, size - pos - 1);
+            System.arraycopy(states, pos + 1, states, pos, size - pos - 1);
+            size--;
+            deferUntil.remove(message);
+            return true;
+        }
+    }
+
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> users = new ArrayList<>();
+    private final List<UserMailbox> mailboxes = new ArrayList<>();
+    private final Map<String, Integer> messageIndex = new HashMap<>();
+    private final List<Email> messages = new ArrayList<>();
+    // Stamp of the last time a message was swapped for another Email object,
+    // which changes every folder that lists it.
+    private long replacedVersion = StoreVersion.next();
+
+    public static boolean isLegacyRecipientCopy(Email email) {
+        EmailStatus status = email.getStatus();
+        return status == EmailStatus.INBOX || status == EmailStatus.ARCHIVED
+                || status == EmailStatus.DELETED || status == EmailStatus.SNOOZED;
+    }
+
+    private static int folderCode(EmailStatus status) {
+        for (int i = 1; i < FOLDERS.length; i++) {
+            if (FOLDERS[i] == status) return i;
+        }
+        throw new IllegalArgumentException("Not a mailbox folder: " + status);
+    }
+
+    private UserMailbox mailbox(String user, boolean create) {
+        String key = user.toLowerCase();
+        Integer id = userIds.get(key);
+        if (id == null) {
+            if (!create) return null;
+            id = users.size();
+            userIds.put(key, id);
+            users.add(key);
+            mailboxes.add(new UserMailbox());
+        }
+        return mailboxes.get(id);
+    }
+
+    private int index(Email copy, boolean create) {
+        Integer index = messageIndex.get(copy.getMessageId());
+        if (index == null) {
+            if (!create) return -1;
+            index = messages.size();
+            messageIndex.put(copy.getMessageId(), index);
+            messages.add(copy);
+        } else if (create && messages.get(index) != copy) {
+            messages.set(index, copy);
+            replacedVersion = StoreVersion.next();
+        }
+        return index;
+    }
+
+    public synchronized void register(Email copy) {
+        index(copy, true);
+    }
+
+    public synchronized void deliver(Email copy) {
+        int message = index(copy, true);
+        int state = folderCode(EmailStatus.INBOX);
+        for (String recipient : copy.getTo()) {
+            UserMailbox box = mailbox(recipient, true);
+            if (box.find(message) < 0) {
+                box.put(message, state);
+            }
+        }
+    }
+
+    public synchronized void put(String user, Email copy, EmailStatus status, boolean read, long deferUntil) {
+        int message = index(copy, true);
+        UserMailbox box = mailbox(user, true);
+        box.put(message, folderCode(status) | (read ? READ_FLAG : 0));
+        if (status == EmailStatus.SNOOZED) {
+            box.deferUntil.put(message, deferUntil);
+        } else {
+            box.deferUntil.remove(message);
+        }
+    }
+
+    // Moves every legacy shared INBOX copy into per-recipient entries seeded
+    // from the copy's old status, read flag and snooze time.
+    public synchronized void migrate(Email legacyCopy) {
+        for (String recipient : legacyCopy.getTo()) {
+            put(recipient, legacyCopy, legacyCopy.getStatus(), legacyCopy.isRead(), legacyCopy.getDeferUntil());
+        }
+        legacyCopy.setStatus(EmailStatus.DELIVERED);
+    }
+
+    private int stateOf(String user, Email copy) {
+        UserMailbox box = mailbox(user, false);
+        int message = index(copy, false);
+        if (box == null || message < 0) return -1;
+        int pos = box.find(message);
+        return (pos < 0) ? -1 : box.states[pos];
+    }
+
+    public synchronized EmailStatus getStatus(String user, Email copy) {
+        int state = stateOf(user, copy);
+        return (state < 0) ? null : FOLDERS[state & FOLDER_MASK];
+    }
+
+    public synchronized boolean isRead(String user, Email copy) {
+        int state = stateOf(user, copy);
+        return state >= 0 && (state & READ_FLAG) != 0;
+    }
+
+    public synchronized long getDeferUntil(String user, Email copy) {
+        UserMailbox box = mailbox(user, false);
+        int message = index(copy, false);
+        if (box == null || message < 0) return 0;
+        Long until = box.deferUntil.get(message);
+        return (until != null) ? until : 0;
+    }
+
+    public synchronized void setStatus(String user, Email copy, EmailStatus status, long deferUntil) {
+        int state = stateOf(user, copy);
+        if (state < 0) return;
+        put(user, copy, status, (state & READ_FLAG) != 0, deferUntil);
+    }
+
+    public synchronized void setRead(String user, Email copy, boolean read) {
+        int state = stateOf(user, copy);
+        if (state < 0) return;
+        UserMailbox box = mailbox(user, false);
+        box.put(index(copy, false), read ? (state | READ_FLAG) : (state & ~READ_FLAG));
+    }
+
+    // Returns true when no recipient holds the message any more.
+    public synchronized boolean remove(String user, Email copy) {
+        UserMailbox box = mailbox(user, false);
+        int message = index(copy, false);
+        if (box == null || message < 0) return false;
+        box.remove(message);
+
+        for (String recipient : copy.getTo()) {
+            UserMailbox other = mailbox(recipient, false);
+            if (other != null && other.find(message) >= 0) return false;
+        }
+        return true;
+    }
+
+    public synchronized void forget(Email copy) {
+        Integer message = messageIndex.remove(copy.getMessageId());
+        if (message == null) return;
+        messages.set(message, null);
+        for (UserMailbox box : mailboxes) {
+            box.remove(message);
+        }
+    }
+
+    public synchronized void removeUser(String user) {
+        UserMailbox box = mailbox(user, false);
+        if (box != null) {
+            box.size = 0;
+            box.deferUntil.clear();
+            for (int folder = 1; folder < FOLDERS.length; folder++) {
+                box.versions[folder] = StoreVersion.next();
+            }
+        }
+    }
+
+    // Changes whenever list(user, status) would return something different.
+    public synchronized long getVersion(String user, EmailStatus status) {
+        UserMailbox box = mailbox(user, false);
+        long version = (box != null) ? box.versions[folderCode(status)] : 0;
+        return Math.max(version, replacedVersion);
+    }
+
+    public synchronized List<Email> list(String user, EmailStatus status) {
+        List<Email> result = new ArrayList<>();
+        UserMailbox box = mailbox(user, false);
+        if (box == null) return result;
+
+        int code = folderCode(status);
+        for (int i : ParallelScan.filter(box.size, i -> (box.states[i] & FOLDER_MASK) == code)) {
+            Email copy = messages.get(box.messages[i]);
+            if (copy != null) result.add(copy);
+        }
+        return result;
+    }
+
+    public synchronized void forEach(EntryConsumer consumer) {
+        for (int u = 0; u < users.size(); u++) {
+            UserMailbox box = mailboxes.get(u);
+            for (int i = 0; i < box.size; i++) {
+                Email copy = messages.get(box.messages[i]);
+                if (copy == null) continue;
+                int state = box.states[i];
+                Long until = box.deferUntil.get(box.messages[i]);
+                consumer.accept(users.get(u), copy, FOLDERS[state & FOLDER_MASK], (state & READ_FLAG) != 0,
+                        (until != null) ? until : 0);
+            }
+        }
+    }
+}
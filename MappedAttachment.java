@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read-only, random-access view of an attachment backed by mmap. Pieces (the
+// chunks of a chunked blob, or fixed windows of a single-file blob) are mapped
+// the first time they are touched, so reading the head of a large file maps
+// only its first piece. Reads through here are not checked against the chunk
+// digests; use AttachmentStore.open when the bytes must be verified.
+public class MappedAttachment {
+    private final Path blob;
+    private final AttachmentManifest manifest;
+    private final long size;
+    private final int pieceSize;
+    private final MappedByteBuffer[] pieces;
+
+    MappedAttachment(Path blob, AttachmentManifest manifest, long size, int pieceSize) {
+        this.blob = blob;
+        this.manifest = manifest;
+        this.size = size;
+        this.pieceSize = pieceSize;
+        this.pieces = new MappedByteBuffer[(int) ((size + pieceSize - 1) / pieceSize)];
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Reads up to len bytes at position without crossing a piece boundary.
+    // Returns -1 at the end of the attachment.
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= size) return -1;
+        int index = (int) (position / pieceSize);
+        ByteBuffer piece = piece(index).duplicate();
+        piece.position((int) (position - (long) index * pieceSize));
+        int n = Math.min(len, piece.remaining());
+        piece.get(b, off, n);
+        return n;
+    }
+
+    private synchronized MappedByteBuffer piece(int index) throws IOException {
+        if (pieces[index] == null) {
+            Path file = (manifest != null) ? AttachmentManifest.chunkPath(blob, index) : blob;
+            long offset = (manifest != null) ? 0 : (long) index * pieceSize;
+            long length = Math.min(pieceSize, size - (long) index * pieceSize);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                pieces[index] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+        }
+        return pieces[index];
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Subject, body, attachment list and thread links of one message. Immutable, and shared by the
+// draft, sent and delivered copies of a messageId so it is held and stored once.
+// The body is kept compressed by BodyCodec and only inflated when read. It is
+// held off-heap in the BodyArena and, once the message is old enough, in a
+// SegmentStore mapping instead.
+public final class MessageContent implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // The body is serialized as the packed bytes it was before it moved off-heap.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("subject", String.class),
+        new ObjectStreamField("packedBody", byte[].class),
+        new ObjectStreamField("attachmentPaths", List.class),
+        new ObjectStreamField("inReplyTo", String.class),
+        new ObjectStreamField("references", List.class),
+    };
+    // A long conversation keeps its root and the most recent ancestors; each
+    // message still names its parent, which is enough to thread it.
+    private static final int MAX_REFERENCES = 20;
+
+    // Not final only so readObject can fill them in.
+    private String subject;
+    private List<String> attachmentPaths;
+    // messageId of the message this one answers, or null.
+    private String inReplyTo;
+    // messageIds of the conversation so far, oldest first.
+    private List<String> references;
+    // Packed body in the arena, or in a cold segment once cold is set.
+    private transient volatile ByteBuffer body;
+    private transient volatile boolean cold;
+
+    public MessageContent(String subject, String body, List<String> attachmentPaths) {
+        this(subject, BodyCodec.encode(body), attachmentPaths, null, null);
+    }
+
+    public MessageContent(String subject, String body, List<String> attachmentPaths, String inReplyTo,
+            List<String> references) {
+        this(subject, BodyCodec.encode(body), attachmentPaths, inReplyTo, references);
+    }
+
+    private MessageContent(String subject, byte[] packedBody, List<String> attachmentPaths, String inReplyTo,
+            List<String> references) {
+        this.subject = subject;
+        this.body = BodyArena.store(packedBody);
+        this.attachmentPaths = Collections.unmodifiableList(
+                (attachmentPaths != null) ? new ArrayList<>(attachmentPaths) : new ArrayList<>());
+        this.inReplyTo = inReplyTo;
+        this.references = trimReferences(references);
+    }
+
+    static MessageContent packed(String subject, byte[] packedBody, List<String> attachmentPaths, String inReplyTo,
+            List<String> references) {
+        return new MessageContent(subject, packedBody, attachmentPaths, inReplyTo, references);
+    }
+
+    public String getSubject() { return subject; }
+    public List<String> getAttachmentPaths() { return attachmentPaths; }
+    public String getInReplyTo() { return inReplyTo; }
+    public List<String> getReferences() { return references; }
+
+    // References for a message that follows up on messageId: this message's
+    // references with messageId appended.
+    public List<String> referencesFor(String messageId) {
+        List<String> chain = new ArrayList<>(references);
+        chain.add(messageId);
+        return trimReferences(chain);
+    }
+
+    private static List<String> trimReferences(List<String> references) {
+        if (references == null || references.isEmpty()) return Collections.emptyList();
+        List<String> kept = new ArrayList<>(references);
+        if (kept.size() > MAX_REFERENCES) {
+            kept.subList(1, kept.size() - (MAX_REFERENCES - 1)).clear();
+        }
+        return Collections.unmodifiableList(kept);
+    }
+
+    public String getBody() {
+        ByteBuffer packed = body;
+        return (packed != null) ? BodyCodec.decode(packed.duplicate()) : null;
+    }
+
+    // A copy of the packed body for writing to the store. Null for a cold
+    // body, which is stored as null and found again by messageId.
+    byte[] getPackedBody() {
+        ByteBuffer packed = body;
+        if (packed == null || cold) return null;
+        byte[] bytes = new byte[packed.remaining()];
+        packed.get(packed.position(), bytes);
+        return bytes;
+    }
+
+    // The packed body without copying it, while it is still hot.
+    ByteBuffer getPackedBuffer() {
+        ByteBuffer packed = body;
+        return (packed != null && !cold) ? packed.duplicate() : null;
+    }
+
+    boolean isCold() {
+        return cold;
+    }
+
+    void attachCold(ByteBuffer segmentBody) {
+        body = segmentBody;
+        cold = true;
+    }
+
+    // Re-encodes the body with the current dictionary after one is trained.
+    // Cold bodies keep the dictionary they were written with.
+    void repack() {
+        if (isCold()) return;
+        body = BodyArena.store(BodyCodec.encode(getBody()));
+    }
+
+    // Trains a body dictionary on the given bodies. Returns null while the corpus
+    // is still too small to train on. The caller persists it before calling
+    // installDictionary, so nothing is ever packed against an unsaved dictionary.
+    static byte[] trainDictionary(Collection<MessageContent> contents) {
+        List<String> bodies = new ArrayList<>();
+        for (MessageContent content : contents) {
+            bodies.add(content.getBody());
+        }
+        return BodyCodec.train(bodies);
+    }
+
+    static void installDictionary(byte[] dictionary, Collection<MessageContent> contents) {
+        BodyCodec.install(dictionary);
+        for (MessageContent content : contents) {
+            content.repack();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MessageContent)) return false;
+        MessageContent other = (MessageContent) o;
+        return Objects.equals(subject, other.subject) && Objects.equals(body, other.body)
+                && attachmentPaths.equals(other.attachmentPaths) && Objects.equals(inReplyTo, other.inReplyTo)
+                && references.equals(other.references);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(subject, body, attachmentPaths, inReplyTo, references);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("subject", subject);
+        fields.put("packedBody", getPackedBody());
+        fields.put("attachmentPaths", attachmentPaths);
+        fields.put("inReplyTo", inReplyTo);
+        fields.put("references", references);
+        out.writeFields();
+    }
+
+    // emails.db files written before compression carry the body as a String,
+    // and those written before threading have no inReplyTo or references.
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        byte[] packedBody = (byte[]) fields.get("packedBody", null);
+        // A null packedBody in the current format is a cold body.
+        if (packedBody == null && fields.getObjectStreamClass().getField("body") != null) {
+            packedBody = BodyCodec.encode((String) fields.get("body", null));
+        }
+        body = BodyArena.store(packedBody);
+        subject = (String) fields.get("subject", null);
+        List<String> paths = (List<String>) fields.get("attachmentPaths", null);
+        attachmentPaths = Collections.unmodifiableList((paths != null) ? new ArrayList<>(paths) : new ArrayList<>());
+        inReplyTo = (String) fields.get("inReplyTo", null);
+        references = trimReferences((List<String>) fields.get("references", null));
+    }
+}
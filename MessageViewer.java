@@ -0,0 +1,253 @@
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+
+// Read-only view of one email. The body is decoded and cut into chunks on a
+// background thread, and chunks are appended to the text area only while the
+// viewport is near the end of what has been loaded, one chunk per event, so
+// a multi-megabyte body never has to be laid out in one go and scrolling
+// stays responsive while it loads. Runs of quoted "> " lines longer than
+// FOLD_LINES are shown as a single line until clicked.
+public class MessageViewer extends JScrollPane {
+    private static final int CHUNK_CHARS = 16 * 1024;
+    private static final int FOLD_LINES = 4;
+    // Chunks handed to the event thread at a time, after the first.
+    private static final int CHUNKS_PER_HANDOFF = 64;
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mailcm-viewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JTextArea text = new JTextArea();
+    // Chunks of the current body not yet in the document.
+    private final Deque<Piece> pending = new ArrayDeque<>();
+    private final List<Fold> folds = new ArrayList<>();
+    // Bumped by every show, so work for a message that is no longer shown is
+    // dropped.
+    private volatile int generation;
+    private boolean started;
+    private boolean appendQueued;
+
+    public MessageViewer() {
+        text.setEditable(false);
+        text.setWrapStyleWord(true);
+        text.setLineWrap(true);
+        text.setBorder(new EmptyBorder(10, 10, 10, 10));
+        setViewportView(text);
+        getViewport().addChangeListener(e -> loadMoreIfNearEnd());
+        text.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                expandAt(text.viewToModel2D(e.getPoint()));
+            }
+        });
+    }
+
+    public void showText(String message) {
+        reset();
+        text.setText(message);
+        text.setCaretPosition(0);
+    }
+
+    // Shows header at once; the body follows as it is decoded.
+    public void showMessage(String header, Email email) {
+        showText(header);
+        int shown = generation;
+        LOADER.execute(() -> split(email.getBody(), shown));
+    }
+
+    private void handOff(List<Piece> pieces, int shown) {
+        SwingUtilities.invokeLater(() -> {
+            if (shown != generation) return;
+            pending.addAll(pieces);
+            if (started) {
+                loadMoreIfNearEnd();
+            } else {
+                started = true;
+                appendNext();
+            }
+        });
+    }
+
+    private void reset() {
+        generation++;
+        started = false;
+        pending.clear();
+        folds.clear();
+    }
+
+    // Checked again when the queued append runs, after the last chunk has
+    // been laid out. Until the text area has a size nothing more is loaded.
+    private boolean nearEnd() {
+        Rectangle view = getViewport().getViewRect();
+        return text.getHeight() > 0 && view.y + 2 * view.height >= text.getHeight();
+    }
+
+    private void loadMoreIfNearEnd() {
+        if (pending.isEmpty() || appendQueued || !nearEnd()) return;
+        appendQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            appendQueued = false;
+            if (nearEnd()) appendNext();
+        });
+    }
+
+    private void appendNext() {
+        Piece piece = pending.poll();
+        if (piece == null) return;
+        Document doc = text.getDocument();
+        try {
+            int start = doc.getLength();
+            doc.insertString(start, piece.text, null);
+            if (piece.hidden != null) {
+                folds.add(new Fold(doc.createPosition(start), piece.text.length(), piece.hidden));
+            }
+        } catch (BadLocationException e) {
+            System.err.println("Could not show message text: " + e.getMessage());
+            pending.clear();
+            return;
+        }
+        loadMoreIfNearEnd();
+    }
+
+    private void expandAt(int offset) {
+        for (Fold fold : folds) {
+            int start = fold.start.getOffset();
+            if (offset >= start && offset < start + fold.length) {
+                folds.remove(fold);
+                try {
+                    text.getDocument().remove(start, fold.length);
+                } catch (BadLocationException e) {
+                    System.err.println("Could not expand quoted text: " + e.getMessage());
+                    return;
+                }
+                insertInChunks(start, fold.hidden, 0, generation);
+                return;
+            }
+        }
+    }
+
+    // Puts quoted text back a chunk per event, like the body itself.
+    private void insertInChunks(int offset, String hidden, int from, int shown) {
+        if (shown != generation) return;
+        int to = Math.min(hidden.length(), from + CHUNK_CHARS);
+        try {
+            text.getDocument().insertString(offset, hidden.substring(from, to), null);
+        } catch (BadLocationException e) {
+            System.err.println("Could not expand quoted text: " + e.getMessage());
+            return;
+        }
+        if (to < hidden.length()) {
+            int next = offset + (to - from);
+            SwingUtilities.invokeLater(() -> insertInChunks(next, hidden, to, shown));
+        }
+    }
+
+    // Cuts the body into chunks of CHUNK_CHARS, with long quote runs as
+    // folds of their own. The first chunk is handed over as soon as it is
+    // cut, so the top of the message shows before the rest is split.
+    private void split(String body, int shown) {
+        if (body == null || body.isEmpty()) return;
+
+        List<Piece> pieces = new ArrayList<>();
+        int handOffAt = 1;
+        StringBuilder plain = new StringBuilder();
+        StringBuilder quote = new StringBuilder();
+        int quoteLines = 0;
+        int pos = 0;
+        while (pos < body.length()) {
+            if (shown != generation) return;
+            if (pieces.size() >= handOffAt) {
+                handOff(pieces, shown);
+                pieces = new ArrayList<>();
+                handOffAt = CHUNKS_PER_HANDOFF;
+            }
+            int end = body.indexOf('\n', pos);
+            int next = (end < 0) ? body.length() : end + 1;
+            if (body.startsWith(">", pos)) {
+                quote.append(body, pos, next);
+                quoteLines++;
+            } else {
+                quoteLines = flushQuote(pieces, plain, quote, quoteLines);
+                appendPlain(pieces, plain, body, pos, next);
+            }
+            pos = next;
+        }
+        flushQuote(pieces, plain, quote, quoteLines);
+        if (plain.length() > 0) {
+            pieces.add(new Piece(plain.toString(), null));
+        }
+        handOff(pieces, shown);
+    }
+
+    private static int flushQuote(List<Piece> pieces, StringBuilder plain, StringBuilder quote, int lines) {
+        if (lines == 0) return 0;
+        if (lines <= FOLD_LINES) {
+            appendPlain(pieces, plain, quote, 0, quote.length());
+        } else {
+            if (plain.length() > 0) {
+                pieces.add(new Piece(plain.toString(), null));
+                plain.setLength(0);
+            }
+            String hidden = quote.toString();
+            if (!hidden.endsWith("\n")) {
+                // The quote ends the body; the marker still takes a whole line.
+                hidden = hidden + "\n";
+            }
+            pieces.add(new Piece(String.format("> [%,d quoted lines, click to show]\n", lines), hidden));
+        }
+        quote.setLength(0);
+        return 0;
+    }
+
+    private static void appendPlain(List<Piece> pieces, StringBuilder plain, CharSequence source, int from, int to) {
+        while (from < to) {
+            int take = Math.min(to - from, CHUNK_CHARS - plain.length());
+            plain.append(source, from, from + take);
+            from += take;
+            if (plain.length() >= CHUNK_CHARS) {
+                pieces.add(new Piece(plain.toString(), null));
+                plain.setLength(0);
+            }
+        }
+    }
+
+    private static final class Piece {
+        final String text;
+        // Quoted lines behind a fold marker, or null for plain text.
+        final String hidden;
+
+        Piece(String text, String hidden) {
+            this.text = text;
+            this.hidden = hidden;
+        }
+    }
+
+    private static final class Fold {
+        final Position start;
+        // Marker length, including its line break.
+        final int length;
+        final String hidden;
+
+        Fold(Position start, int length, String hidden) {
+            this.start = start;
+            this.length = length;
+            this.hidden = hidden;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+// Serves a folder newest first, a page at a time. The first page is picked
+// with a bounded heap over the timestamp column in one pass, with no full
+// sort, so the first rows of a 100,000-message folder are ready almost as
+// soon as those of a small one. The rest is sorted only once the user
+// scrolls past the first page, and that order is kept in the ViewCache
+// result for later visits. Ties keep the folder's original order.
+//
+// A pager can instead be given a sort key, for a column the user sorted on.
+// It then sorts the whole folder by that key on its first page, ties newest
+// first, and keeps that order to itself.
+public class NewestFirstPager {
+    private final ViewCache.Result folder;
+    private final List<Email> emails;
+    private final long[] times;
+    private final boolean[] served;
+    private int remaining;
+    // Every position newest first; built on the first page after the first.
+    private int[] order;
+    private int orderIndex;
+    // Null when serving newest first.
+    private final Function<Email, Comparable<?>> sortKey;
+    private final boolean descending;
+
+    public NewestFirstPager(ViewCache.Result folder) {
+        this(folder, null, false);
+    }
+
+    public NewestFirstPager(ViewCache.Result folder, Function<Email, Comparable<?>> sortKey, boolean descending) {
+        this.folder = folder;
+        this.sortKey = sortKey;
+        this.descending = descending;
+        this.emails = folder.emails;
+        this.times = folder.times;
+        this.order = folder.order;
+        this.served = new boolean[emails.size()];
+        this.remaining = emails.size();
+    }
+
+    public int size() {
+        return emails.size();
+    }
+
+    public boolean hasMore() {
+        return remaining > 0;
+    }
+
+    public List<Email> next(int count) {
+        count = Math.min(count, remaining);
+        List<Email> page = new ArrayList<>(count);
+        if (count == 0) return page;
+
+        if (order == null && sortKey != null) {
+            order = sortedByKey();
+        }
+        if (order == null && remaining == emails.size() && count < remaining) {
+            for (int position : newestFirst(newest(count))) {
+                page.add(take(position));
+            }
+            return page;
+        }
+
+        if (order == null) {
+            long start = System.nanoTime();
+            int[] all = new int[emails.size()];
+            Arrays.setAll(all, i -> i);
+            order = newestFirst(all);
+            folder.setOrder(order, System.nanoTime() - start);
+        }
+        while (page.size() < count) {
+            int position = order[orderIndex++];
+            if (!served[position]) {
+                page.add(take(position));
+            }
+        }
+        return page;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int[] sortedByKey() {
+        Comparable<Object>[] keys = new Comparable[emails.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (Comparable<Object>) sortKey.apply(emails.get(i));
+        }
+        int[] all = new int[emails.size()];
+        Arrays.setAll(all, i -> i);
+        Integer[] boxed = Arrays.stream(newestFirst(all)).boxed().toArray(Integer[]::new);
+        // Stable, so equal keys stay newest first.
+        Arrays.sort(boxed, (a, b) -> descending ? keys[b].compareTo(keys[a]) : keys[a].compareTo(keys[b]));
+        return Arrays.stream(boxed).mapToInt(Integer::intValue).toArray();
+    }
+
+    private Email take(int position) {
+        served[position] = true;
+        remaining--;
+        return emails.get(position);
+    }
+
+    // Positions of the k newest emails, in no particular order. The heap root
+    // is the oldest of those kept so far.
+    private int[] newest(int k) {
+        int[] heap = new int[k];
+        int size = 0;
+        for (int position = 0; position < times.length; position++) {
+            if (size < k) {
+                heap[size] = position;
+                siftUp(heap, size++);
+            } else if (older(heap[0], position)) {
+                heap[0] = position;
+                siftDown(heap, k);
+            }
+        }
+        return heap;
+    }
+
+    private boolean older(int a, int b) {
+        return times[a] < times[b] || (times[a] == times[b] && a > b);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!older(heap[i], heap[parent])) break;
+            int t = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int oldest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && older(heap[left], heap[oldest])) oldest = left;
+            if (right < size && older(heap[right], heap[oldest])) oldest = right;
+            if (oldest == i) return;
+            int t = heap[i];
+            heap[i] = heap[oldest];
+            heap[oldest] = t;
+            i = oldest;
+        }
+    }
+
+    private int[] newestFirst(int[] positions) {
+        Arrays.sort(positions);
+        long[] keys = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            keys[i] = times[positions[i]];
+        }
+        int[] order = HeaderStore.newestFirst(keys, keys.length);
+        if (order == null) {
+            Integer[] boxed = Arrays.stream(positions).boxed().toArray(Integer[]::new);
+            Arrays.sort(boxed, (a, b) -> older(a, b) ? 1 : older(b, a) ? -1 : 0);
+            return Arrays.stream(boxed).mapToInt(Integer::intValue).toArray();
+        }
+        int[] sorted = new int[positions.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = positions[order[i]];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Holds sent messages in PENDING for the unsend window, then commits them to
+// their recipients in batches. Pending state lives in the store, so recover()
+// rebuilds the queue after a restart or reload.
+public class OutboundQueue {
+    private static final long TICK_MS = 200;
+    private static final int TICKS_PER_WHEEL = 512;
+    // Failed deliveries are retried after 5s, 10s, 20s, 40s and 80s, as in
+    // DeferredMailQueue. A message that still fails stays PENDING in the
+    // store and is queued again by recover() on the next start.
+    private static final long RETRY_DELAY_MS = 5000;
+    private static final int MAX_ATTEMPTS = 6;
+
+    private static class PendingDelivery {
+        final AtomicBoolean claimed = new AtomicBoolean();
+        volatile Email recipientCopy;
+        volatile TimerWheel.Timeout<PendingDelivery> timeout;
+        // Failed attempts so far; only touched by the wheel's thread.
+        int failures;
+
+        PendingDelivery(Email recipientCopy) {
+            this.recipientCopy = recipientCopy;
+        }
+    }
+
+    private final IDataManager dataManager;
+    private final long unsendWindowMs;
+    private final TimerWheel<PendingDelivery> wheel;
+    private final Map<String, PendingDelivery> pending = new ConcurrentHashMap<>();
+
+    public OutboundQueue(IDataManager dataManager, long unsendWindowMs) {
+        this.dataManager = dataManager;
+        this.unsendWindowMs = unsendWindowMs;
+        this.wheel = new TimerWheel<>("mailcm-outbound", TICK_MS, TICKS_PER_WHEEL, this::commit);
+    }
+
+    public void enqueue(Email recipientCopy) {
+        PendingDelivery delivery = new PendingDelivery(recipientCopy);
+        if (pending.putIfAbsent(recipientCopy.getMessageId(), delivery) == null) {
+            delivery.timeout = wheel.schedule(delivery, recipientCopy.getTimestamp() + unsendWindowMs);
+        }
+    }
+
+    public void recover() {
+        for (Email email : dataManager.getEmails()) {
+            if (email.getStatus() != EmailStatus.PENDING) continue;
+
+            PendingDelivery existing = pending.get(email.getMessageId());
+            if (existing != null) {
+                existing.recipientCopy = email;
+            } else {
+                enqueue(email);
+            }
+        }
+    }
+
+    public boolean isPending(String messageId) {
+        return messageId != null && pending.containsKey(messageId);
+    }
+
+    // Returns the recipient copy that will now never be delivered, or null if
+    // the message has already been committed.
+    public Email cancel(String messageId) {
+        PendingDelivery delivery = (messageId != null) ? pending.get(messageId) : null;
+        if (delivery == null || !delivery.claimed.compareAndSet(false, true)) {
+            return null;
+        }
+        pending.remove(messageId, delivery);
+        if (delivery.timeout != null) {
+            delivery.timeout.cancel();
+        }
+        return delivery.recipientCopy;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private void commit(List<PendingDelivery> fired) {
+        List<PendingDelivery> due = new ArrayList<>(fired.size());
+        List<Email> batch = new ArrayList<>(fired.size());
+        for (PendingDelivery delivery : fired) {
+            if (delivery.claimed.compareAndSet(false, true)) {
+                due.add(delivery);
+                batch.add(delivery.recipientCopy);
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        try {
+            dataManager.deliverEmails(batch);
+        } catch (DataStoreException e) {
+            long now = System.currentTimeMillis();
+            int givenUp = 0;
+            for (PendingDelivery delivery : due) {
+                if (++delivery.failures < MAX_ATTEMPTS) {
+                    delivery.claimed.set(false);
+                    delivery.timeout = wheel.schedule(delivery, now + (RETRY_DELAY_MS << (delivery.failures - 1)));
+                } else {
+                    pending.remove(delivery.recipientCopy.getMessageId(), delivery);
+                    givenUp++;
+                }
+            }
+            System.err.println("Outbound delivery failed, " + (givenUp == 0 ? "retrying" : "giving up on "
+                    + givenUp + " message(s) until restart") + ": " + e.getMessage());
+            return;
+        }
+
+        for (PendingDelivery delivery : due) {
+            pending.remove(delivery.recipientCopy.getMessageId(), delivery);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Collections;
+import java.util.List;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.TableModel;
+
+// Row sorter for tables that hold only the rows loaded so far. A header click
+// sets the sort keys, which the header shows as usual, and calls the owner
+// back to reload its rows from the data source in that order. Rows are never
+// reordered here, so view and model indexes are the same.
+public class PagedRowSorter<M extends TableModel> extends RowSorter<M> {
+    private final M model;
+    private final Runnable sortChanged;
+    private final boolean[] unsortable;
+    private List<? extends SortKey> sortKeys = Collections.emptyList();
+
+    public PagedRowSorter(M model, Runnable sortChanged) {
+        this.model = model;
+        this.sortChanged = sortChanged;
+        this.unsortable = new boolean[model.getColumnCount()];
+    }
+
+    public void setSortable(int column, boolean sortable) {
+        unsortable[column] = !sortable;
+    }
+
+    // The sorted column and its order, or null while unsorted.
+    public SortKey getSortKey() {
+        return sortKeys.isEmpty() ? null : sortKeys.get(0);
+    }
+
+    @Override
+    public M getModel() {
+        return model;
+    }
+
+    // First click sorts ascending, the next descending, and so on.
+    @Override
+    public void toggleSortOrder(int column) {
+        if (column < 0 || column >= unsortable.length || unsortable[column]) return;
+        SortKey current = getSortKey();
+        SortOrder order = (current != null && current.getColumn() == column
+                && current.getSortOrder() == SortOrder.ASCENDING) ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<? extends SortKey> next = (keys != null) ? List.copyOf(keys) : Collections.<SortKey>emptyList();
+        if (next.equals(sortKeys)) return;
+        sortKeys = next;
+        fireSortOrderChanged();
+        sortChanged.run();
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return index;
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        return index;
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+    }
+
+    @Override
+    public void allRowsChanged() {
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+// Fork-join filter and sort for the header columns of very large stores.
+// Work is split into chunks that are filtered or sorted on their own pool and
+// then concatenated or merged, so results come out in the same order as the
+// sequential loop. Below the threshold everything stays on the calling
+// thread, where a small folder is faster than the cost of forking.
+//
+//   -Dmailcm.scan.threshold=N  smallest input split across threads (100000)
+//   -Dmailcm.scan.threads=N    pool size (available processors)
+public final class ParallelScan {
+    public static final int THRESHOLD = Math.max(1, Integer.getInteger("mailcm.scan.threshold", 100_000));
+    public static final int PARALLELISM = Math.max(1,
+            Integer.getInteger("mailcm.scan.threads", Runtime.getRuntime().availableProcessors()));
+    // Chunks per thread, so a slow chunk does not leave the others idle.
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK = 8192;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+
+    private ParallelScan() {
+    }
+
+    private static boolean parallel(int size) {
+        return size >= THRESHOLD && PARALLELISM > 1;
+    }
+
+    private static int chunkSize(int size) {
+        return Math.max(MIN_CHUNK, size / (PARALLELISM * CHUNKS_PER_THREAD) + 1);
+    }
+
+    // Indexes in [0, size) that match, in increasing order. The predicate
+    // may be called from pool threads while the caller waits, so it must only
+    // read state the caller keeps from changing.
+    public static int[] filter(int size, IntPredicate match) {
+        if (!parallel(size)) return scan(0, size, match);
+        return POOL.invoke(new FilterTask(0, size, chunkSize(size), match));
+    }
+
+    // Sorts keys in ascending order.
+    public static void sort(long[] keys) {
+        if (!parallel(keys.length)) {
+            Arrays.sort(keys);
+            return;
+        }
+        POOL.invoke(new SortTask(keys, new long[keys.length], 0, keys.length, chunkSize(keys.length)));
+    }
+
+    private static int[] scan(int from, int to, IntPredicate match) {
+        int[] matches = new int[16];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (match.test(i)) {
+                if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+                matches[count++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static final class FilterTask extends RecursiveTask<int[]> {
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final IntPredicate match;
+
+        FilterTask(int from, int to, int chunk, IntPredicate match) {
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.match = match;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= chunk) return scan(from, to, match);
+            int mid = (from + to) >>> 1;
+            FilterTask left = new FilterTask(from, mid, chunk, match);
+            left.fork();
+            int[] high = new FilterTask(mid, to, chunk, match).compute();
+            int[] low = left.join();
+            int[] all = Arrays.copyOf(low, low.length + high.length);
+            System.arraycopy(high, 0, all, low.length, high.length);
+            return all;
+        }
+    }
+
+    private static final class SortTask extends RecursiveAction {
+        private final long[] keys;
+        private final long[] buffer;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        SortTask(long[] keys, long[] buffer, int from, int to, int chunk) {
+            this.keys = keys;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                Arrays.sort(keys, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(keys, buffer, from, mid, chunk), new SortTask(keys, buffer, mid, to, chunk));
+            merge(mid);
+        }
+
+        // Merges the sorted halves; the left half is moved aside first.
+        private void merge(int mid) {
+            if (keys[mid - 1] <= keys[mid]) return;
+            System.arraycopy(keys, from, buffer, from, mid - from);
+            int left = from;
+            int right = mid;
+            int out = from;
+            while (left < mid && right < to) {
+                keys[out++] = (buffer[left] <= keys[right]) ? buffer[left++] : keys[right++];
+            }
+            while (left < mid) {
+                keys[out++] = buffer[left++];
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Cold tier for message bodies. Bodies of messages older than the hot window
+// are moved out of memory into immutable segment files under
+// database/segments/, each holding the packed bodies of many messages and an
+// index of messageId to offset at its end. Segments are memory-mapped, so a
+// cold body costs no heap until it is opened and is then inflated straight out
+// of the mapping. Subjects, senders and recipients stay in memory, so list
+// views and header searches cover cold mail as before.
+//
+// A cold body is stored as null in emails.db or message_content and found
+// again here by its messageId when the store loads. Segments are never
+// modified; when most of a segment's bodies belong to deleted messages its
+// live bodies are copied into a new segment and the old file is removed.
+public class SegmentStore {
+    private static final int MAGIC = 0x4D435347; // "MCSG"
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".seg";
+    // Marks a compacted segment whose file could not be deleted yet.
+    private static final String RETIRED = ".retired";
+    private static final long MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    // A segment is compacted once less than half of its bodies are still live.
+    private static final int MIN_LIVE_PERCENT = 50;
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer data;
+        // messageId -> { offset, length } of the packed body.
+        final Map<String, int[]> entries;
+
+        Segment(int id, Path path, MappedByteBuffer data, Map<String, int[]> entries) {
+            this.id = id;
+            this.path = path;
+            this.data = data;
+            this.entries = entries;
+        }
+
+        ByteBuffer slice(String messageId) {
+            int[] entry = entries.get(messageId);
+            return (entry != null) ? data.slice(entry[0], entry[1]).asReadOnlyBuffer() : null;
+        }
+    }
+
+    private final Path dir;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // Newest segment holding each messageId.
+    private final Map<String, Segment> index = new HashMap<>();
+    private int nextId = 1;
+    private long tieredCount;
+    private long compactedCount;
+
+    public SegmentStore(String dir) {
+        this.dir = Paths.get(dir);
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            System.err.println("Error creating segment directory: " + e.getMessage());
+        }
+        load();
+    }
+
+    private synchronized void load() {
+        List<Path> files = new ArrayList<>();
+        Set<String> retired = new HashSet<>();
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path file : listing) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(RETIRED)) {
+                    retired.add(name.substring(0, name.length() - RETIRED.length()) + SUFFIX);
+                } else {
+                    files.add(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading segment directory: " + e.getMessage());
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(SUFFIX)) {
+                // A segment that was never finished; its bodies are still in the store.
+                delete(file);
+                continue;
+            }
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextId = Math.max(nextId, id + 1);
+            if (retired.contains(name)) {
+                // Compacted away; nothing maps it yet, so it can go now.
+                if (delete(file)) {
+                    delete(dir.resolve(PREFIX + id + RETIRED));
+                }
+                continue;
+            }
+            try {
+                segments.put(id, open(id, file));
+            } catch (IOException e) {
+                System.err.println("Could not open segment " + name + ": " + e.getMessage());
+            }
+        }
+        for (String name : retired) {
+            if (!Files.exists(dir.resolve(name))) {
+                delete(dir.resolve(name.substring(0, name.length() - SUFFIX.length()) + RETIRED));
+            }
+        }
+        for (Segment segment : segments.values()) {
+            for (String messageId : segment.entries.keySet()) {
+                index.put(messageId, segment);
+            }
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not delete " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Layout: MAGIC, packed bodies, then the index (count, then messageId,
+    // offset and length per body), the index offset and MAGIC again.
+    private static Segment open(int id, Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < 16 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("bad segment size " + channel.size());
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = data.capacity();
+        if (data.getInt(0) != MAGIC || data.getInt(size - 4) != MAGIC) {
+            throw new IOException("not a segment file");
+        }
+        long indexOffset = data.getLong(size - 12);
+        if (indexOffset < 4 || indexOffset > size - 12) {
+            throw new IOException("bad index offset " + indexOffset);
+        }
+        byte[] indexBytes = new byte[(int) (size - 12 - indexOffset)];
+        data.get((int) indexOffset, indexBytes);
+
+        Map<String, int[]> entries = new HashMap<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexBytes));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String messageId = in.readUTF();
+            int offset = in.readInt();
+            int length = in.readInt();
+            if (offset < 4 || length < 0 || (long) offset + length > indexOffset) {
+                throw new IOException("bad entry for " + messageId);
+            }
+            entries.put(messageId, new int[] { offset, length });
+        }
+        return new Segment(id, path, data, entries);
+    }
+
+    // Mapped packed body of a cold message, or null if no segment holds it.
+    public synchronized ByteBuffer locate(String messageId) {
+        Segment segment = index.get(messageId);
+        return (segment != null) ? segment.slice(messageId) : null;
+    }
+
+    // Reconnects contents loaded without a body to their cold copy.
+    public void attach(List<Email> emails) {
+        for (Email email : emails) {
+            MessageContent content = email.getContent();
+            if (content.getPackedBuffer() != null || content.isCold() || email.getMessageId() == null) continue;
+            ByteBuffer body = locate(email.getMessageId());
+            if (body != null) {
+                content.attachCold(body);
+            }
+        }
+    }
+
+    // Moves the bodies of messages whose newest copy is older than cutoff into
+    // a new segment, and compacts segments that have become mostly dead.
+    // Drafts and messages still waiting to be sent stay hot. Returns the
+    // messageIds that went cold; the caller must then store their bodies as
+    // null. The segment is durable before any content is switched over, so a
+    // crash in between only leaves an unused segment entry behind.
+    public synchronized List<String> tier(List<Email> emails, long cutoff) throws IOException {
+        Map<String, MessageContent> contents = new LinkedHashMap<>();
+        Map<String, Long> newest = new HashMap<>();
+        Set<String> pinned = new HashSet<>();
+        for (Email email : emails) {
+            String messageId = email.getMessageId();
+            if (messageId == null) continue;
+            contents.putIfAbsent(messageId, email.getContent());
+            newest.merge(messageId, email.getTimestamp(), Math::max);
+            EmailStatus status = email.getStatus();
+            if (status == EmailStatus.DRAFT || status == EmailStatus.PENDING || status == EmailStatus.SCHEDULED) {
+                pinned.add(messageId);
+            }
+        }
+
+        Map<String, ByteBuffer> moving = new LinkedHashMap<>();
+        Map<String, MessageContent> live = new HashMap<>();
+        for (Map.Entry<String, MessageContent> entry : contents.entrySet()) {
+            String messageId = entry.getKey();
+            MessageContent content = entry.getValue();
+            if (content.isCold()) {
+                live.put(messageId, content);
+            } else if (!pinned.contains(messageId) && newest.get(messageId) < cutoff) {
+                ByteBuffer packed = content.getPackedBuffer();
+                if (packed != null) {
+                    moving.put(messageId, packed);
+                }
+            }
+        }
+
+        // Live bodies of sparse segments are carried into the new segment.
+        List<Segment> retired = new ArrayList<>();
+        Map<String, ByteBuffer> relocating = new LinkedHashMap<>();
+        for (Segment segment : segments.values()) {
+            int liveCount = 0;
+            for (String messageId : segment.entries.keySet()) {
+                if (live.containsKey(messageId) && index.get(messageId) == segment) liveCount++;
+            }
+            if (liveCount * 100 >= segment.entries.size() * MIN_LIVE_PERCENT) continue;
+            retired.add(segment);
+            for (String messageId : segment.entries.keySet()) {
+                if (live.containsKey(messageId) && index.get(messageId) == segment) {
+                    relocating.put(messageId, segment.slice(messageId));
+                }
+            }
+        }
+
+        Map<String, ByteBuffer> writing = new LinkedHashMap<>(relocating);
+        writing.putAll(moving);
+        for (Segment segment : write(writing)) {
+            segments.put(segment.id, segment);
+            for (String messageId : segment.entries.keySet()) {
+                index.put(messageId, segment);
+                MessageContent content = moving.containsKey(messageId) ? contents.get(messageId) : live.get(messageId);
+                content.attachCold(segment.slice(messageId));
+            }
+        }
+
+        // Relocated bodies were already stored as null, so their old segment
+        // can go as soon as the new one is durable. It is marked retired
+        // first: the file is still mapped, and where a mapped file cannot be
+        // deleted (Windows) it is removed by load() on the next start.
+        for (Segment segment : retired) {
+            Files.write(dir.resolve(PREFIX + segment.id + RETIRED), new byte[0]);
+        }
+        for (Segment segment : retired) {
+            segments.remove(segment.id);
+            index.values().removeIf(s -> s == segment);
+            compactedCount++;
+            try {
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(dir.resolve(PREFIX + segment.id + RETIRED));
+            } catch (IOException e) {
+                // Still mapped; left for the next start.
+            }
+        }
+        tieredCount += moving.size();
+        return new ArrayList<>(moving.keySet());
+    }
+
+    private List<Segment> write(Map<String, ByteBuffer> bodies) throws IOException {
+        List<Segment> written = new ArrayList<>();
+        Iterator<Map.Entry<String, ByteBuffer>> remaining = bodies.entrySet().iterator();
+        while (remaining.hasNext()) {
+            int id = nextId++;
+            Path temp = dir.resolve(PREFIX + id + ".part");
+            Path path = dir.resolve(PREFIX + id + SUFFIX);
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            List<String> ids = new ArrayList<>();
+            List<int[]> positions = new ArrayList<>();
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC));
+                long offset = 4;
+                while (remaining.hasNext() && offset < MAX_SEGMENT_BYTES) {
+                    Map.Entry<String, ByteBuffer> entry = remaining.next();
+                    ByteBuffer body = entry.getValue().duplicate();
+                    int length = body.remaining();
+                    writeFully(channel, body);
+                    ids.add(entry.getKey());
+                    positions.add(new int[] { (int) offset, length });
+                    offset += length;
+                }
+
+                index.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    index.writeUTF(ids.get(i));
+                    index.writeInt(positions.get(i)[0]);
+                    index.writeInt(positions.get(i)[1]);
+                }
+                index.writeLong(offset);
+                index.writeInt(MAGIC);
+                writeFully(channel, ByteBuffer.wrap(indexBytes.toByteArray()));
+                channel.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            written.add(open(id, path));
+        }
+        return written;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public synchronized int getSegmentCount() { return segments.size(); }
+    public synchronized int getColdCount() { return index.size(); }
+    public synchronized long getTieredCount() { return tieredCount; }
+    public synchronized long getCompactedCount() { return compactedCount; }
+
+    public synchronized long getMappedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.data.capacity();
+        }
+        return bytes;
+    }
+
+    public String describe() {
+        return String.format("%d cold messages in %d segments, %.1f MB mapped",
+                getColdCount(), getSegmentCount(), getMappedBytes() / (1024.0 * 1024.0));
+    }
+}
@@ -511,7 +511,12 @@ public class SignUp extends JPanel {
             String fullName = tempFirstName + (tempLastName.isEmpty() ? "" : " " + tempLastName);
 
             User newUser = new User(fullName, fullEmail, password);
-            dataManager.addUser(newUser);
+            try {
+                dataManager.addUser(newUser);
+            } catch (DataStoreException e) {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             JOptionPane.showMessageDialog(this,
                 "Account created successfully for " + fullEmail + "!",
@@ -0,0 +1,15 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide clock for the version stamps MailboxState and HeaderStore keep
+// per folder. Every change takes a new value, so a stamp is never reused, even
+// by a store rebuilt on reload, and equal stamps mean an unchanged folder.
+public final class StoreVersion {
+    private static final AtomicLong clock = new AtomicLong();
+
+    private StoreVersion() {
+    }
+
+    public static long next() {
+        return clock.incrementAndGet();
+    }
+}
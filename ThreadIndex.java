@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Groups messages into conversations by the inReplyTo and references ids
+// they carry. Every messageId seen, including ones only referred to so far,
+// gets a node; linked nodes are joined with union-find, and each root keeps
+// the list of its members, the smaller list being moved onto the larger one.
+// A reply that arrives before its parent joins the parent's conversation when
+// the parent is added. Links are never undone: deleting a message leaves its
+// node behind, so a conversation does not split when a message in the
+// middle of it goes. The data managers keep it in step with their email list.
+public class ThreadIndex {
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private static final class Node {
+        final String messageId;
+        Node parent = this;
+        // Copies of the message held in the store: the sender's own copy, the
+        // delivered copy, drafts. Empty for a message only referred to.
+        final List<Email> copies = new ArrayList<>(1);
+        // Every node of the conversation; kept on the root only, and null
+        // while the node is a conversation of its own.
+        List<Node> members;
+
+        Node(String messageId) {
+            this.messageId = messageId;
+        }
+
+        int memberCount() {
+            return (members != null) ? members.size() : 1;
+        }
+    }
+
+    public synchronized void rebuild(List<Email> emails) {
+        nodes.clear();
+        for (Email email : emails) {
+            put(email);
+        }
+    }
+
+    // Adds the email, or links it again after its content changed.
+    public synchronized void put(Email email) {
+        String messageId = email.getMessageId();
+        if (messageId == null) return;
+
+        Node node = node(messageId);
+        if (!containsCopy(node, email)) {
+            node.copies.add(email);
+        }
+        MessageContent content = email.getContent();
+        if (content.getInReplyTo() != null) {
+            union(node, node(content.getInReplyTo()));
+        }
+        for (String reference : content.getReferences()) {
+            union(node, node(reference));
+        }
+    }
+
+    public synchronized void remove(Email email) {
+        String messageId = email.getMessageId();
+        Node node = (messageId != null) ? nodes.get(messageId) : null;
+        if (node == null) return;
+        node.copies.removeIf(copy -> copy == email);
+    }
+
+    public synchronized void putAll(Collection<Email> emails) {
+        for (Email email : emails) {
+            put(email);
+        }
+    }
+
+    public synchronized void removeAll(Collection<Email> emails) {
+        for (Email email : emails) {
+            remove(email);
+        }
+    }
+
+    // Every copy held of every message in the email's conversation, in no
+    // particular order; just the email if it is not indexed.
+    public synchronized List<Email> conversation(Email email) {
+        String messageId = email.getMessageId();
+        Node node = (messageId != null) ? nodes.get(messageId) : null;
+        List<Email> copies = new ArrayList<>();
+        if (node == null) {
+            copies.add(email);
+            return copies;
+        }
+        Node root = find(node);
+        if (root.members == null) {
+            copies.addAll(root.copies);
+            return copies;
+        }
+        for (Node member : root.members) {
+            copies.addAll(member.copies);
+        }
+        return copies;
+    }
+
+    // Every copy held of the one message.
+    public synchronized List<Email> copies(String messageId) {
+        Node node = (messageId != null) ? nodes.get(messageId) : null;
+        return (node != null) ? new ArrayList<>(node.copies) : new ArrayList<>();
+    }
+
+    public synchronized boolean sameConversation(Email a, Email b) {
+        Node nodeA = (a.getMessageId() != null) ? nodes.get(a.getMessageId()) : null;
+        Node nodeB = (b.getMessageId() != null) ? nodes.get(b.getMessageId()) : null;
+        if (nodeA == null || nodeB == null) return a == b;
+        return find(nodeA) == find(nodeB);
+    }
+
+    private Node node(String messageId) {
+        return nodes.computeIfAbsent(messageId, Node::new);
+    }
+
+    private static boolean containsCopy(Node node, Email email) {
+        for (Email copy : node.copies) {
+            if (copy == email) return true;
+        }
+        return false;
+    }
+
+    private static Node find(Node node) {
+        Node root = node;
+        while (root.parent != root) {
+            root = root.parent;
+        }
+        while (node != root) {
+            Node next = node.parent;
+            node.parent = root;
+            node = next;
+        }
+        return root;
+    }
+
+    private static void union(Node a, Node b) {
+        Node rootA = find(a);
+        Node rootB = find(b);
+        if (rootA == rootB) return;
+        if (rootA.memberCount() < rootB.memberCount()) {
+            Node t = rootA;
+            rootA = rootB;
+            rootB = t;
+        }
+        rootB.parent = rootA;
+        if (rootA.members == null) {
+            rootA.members = new ArrayList<>();
+            rootA.members.add(rootA);
+        }
+        if (rootB.members != null) {
+            rootA.members.addAll(rootB.members);
+            rootB.members = null;
+        } else {
+            rootA.members.add(rootB);
+        }
+    }
+}
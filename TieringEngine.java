@@ -0,0 +1,43 @@
+import java.util.concurrent.TimeUnit;
+
+// Periodically moves mail older than the hot window into the cold segments of
+// the data manager, so the heap holds bodies for recent mail only. Runs on one
+// low-priority daemon thread: once shortly after startup, then every hour.
+public class TieringEngine {
+    private static final long FIRST_RUN_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final IDataManager dataManager;
+    private final long hotWindowMs;
+
+    public TieringEngine(IDataManager dataManager, long hotWindowMs) {
+        this.dataManager = dataManager;
+        this.hotWindowMs = hotWindowMs;
+        Thread worker = new Thread(this::run, "mailcm-tiering");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    private void run() {
+        long pause = FIRST_RUN_DELAY_MS;
+        while (true) {
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                return;
+            }
+            pause = INTERVAL_MS;
+            runOnce();
+        }
+    }
+
+    public int runOnce() {
+        try {
+            return dataManager.tierColdMail(System.currentTimeMillis() - hotWindowMs);
+        } catch (DataStoreException e) {
+            System.err.println(e.getMessage());
+            return 0;
+        }
+    }
+}
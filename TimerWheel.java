@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+// Hashed timing wheel driven by one daemon thread. Timers due in the same tick
+// are handed to the handler together, so callers can commit them as a batch.
+// Each timer is a single small node in an intrusive bucket list, so millions of
+// pending timers cost memory but no threads and no per-tick scans of the whole set.
+public class TimerWheel<T> {
+
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    public static final class Timeout<T> {
+        private final T payload;
+        private final long deadline;
+        private final int generation;
+        private volatile int state = ST_PENDING;
+        private long remainingRounds;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(T payload, long deadline, int generation) {
+            this.payload = payload;
+            this.deadline = deadline;
+            this.generation = generation;
+        }
+
+        public T getPayload() { return payload; }
+        public long getDeadline() { return deadline; }
+
+        // Returns false if the timer already fired; a cancelled timer never fires.
+        public boolean cancel() {
+            return STATE.compareAndSet(this, ST_PENDING, ST_CANCELLED);
+        }
+
+        public boolean isPending() {
+            return state == ST_PENDING;
+        }
+    }
+
+    private static final class Bucket<T> {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        void add(Timeout<T> timeout) {
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout<T> remove(Timeout<T> timeout) {
+            Timeout<T> next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            if (timeout == head) head = next;
+            if (timeout == tail) tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            return next;
+        }
+
+        int expire(int generation, List<T> due) {
+            int cancelled = 0;
+            Timeout<T> timeout = head;
+            while (timeout != null) {
+                if (timeout.state == ST_CANCELLED || timeout.generation != generation) {
+                    timeout = remove(timeout);
+                    cancelled++;
+                } else if (timeout.remainingRounds <= 0) {
+                    Timeout<T> next = remove(timeout);
+                    if (STATE.compareAndSet(timeout, ST_PENDING, ST_EXPIRED)) {
+                        due.add(timeout.payload);
+                    }
+                    timeout = next;
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final Bucket<T>[] wheel;
+    private final int mask;
+    private final Consumer<List<T>> handler;
+    private final Queue<Timeout<T>> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int generation;
+    private final long startTime;
+    private long tick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tickMillis, int ticksPerWheel, Consumer<List<T>> handler) {
+        int buckets = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            wheel[i] = new Bucket<>();
+        }
+        this.mask = buckets - 1;
+        this.handler = handler;
+        this.startTime = System.currentTimeMillis();
+
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout<T> schedule(T payload, long deadline) {
+        Timeout<T> timeout = new Timeout<>(payload, deadline, generation);
+        size.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    // Drops every timer scheduled so far. Nodes are unlinked lazily as the wheel
+    // reaches their bucket, so this is O(1) for the caller.
+    public synchronized void cancelAll() {
+        generation++;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void run() {
+        while (true) {
+            long tickDeadline = startTime + (tick + 1) * tickMillis;
+            long sleep = tickDeadline - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            transferNewTimeouts();
+            List<T> due = new ArrayList<>();
+            int cancelled = wheel[(int) (tick & mask)].expire(generation, due);
+            size.addAndGet(-(due.size() + cancelled));
+            tick++;
+
+            if (!due.isEmpty()) {
+                try {
+                    handler.accept(due);
+                } catch (RuntimeException e) {
+                    System.err.println("Timer handler failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout<T> timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state == ST_CANCELLED || timeout.generation != generation) {
+                size.decrementAndGet();
+                continue;
+            }
+            long dueTick = (timeout.deadline - startTime + tickMillis - 1) / tickMillis - 1;
+            long targetTick = Math.max(dueTick, tick);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+}
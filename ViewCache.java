@@ -0,0 +1,81 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Folder results kept between visits, keyed by (user, view, sort). Each
+// result carries the version stamp its store gave the folder when it was
+// computed; showing the folder again reuses it while the stamp is unchanged.
+// Stamps are per folder, so mail arriving in INBOX leaves a cached ARCHIVE
+// result valid. A result holds the folder's emails and their timestamps, and
+// its newest-first order once a NewestFirstPager has sorted it.
+public class ViewCache {
+
+    public static final class Result {
+        final long version;
+        final List<Email> emails;
+        final long[] times;
+        volatile int[] order;
+        // Time spent building this result, i.e. the work a hit saves.
+        volatile long costNanos;
+
+        Result(long version, List<Email> emails, long[] times, long costNanos) {
+            this.version = version;
+            this.emails = emails;
+            this.times = times;
+            this.costNanos = costNanos;
+        }
+
+        void setOrder(int[] order, long nanos) {
+            this.order = order;
+            costNanos += nanos;
+        }
+    }
+
+    private final Map<String, Result> results = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long savedNanos;
+
+    // Cached result for the folder if its version still matches; otherwise
+    // loads it again. Read the version before the folder, so a change made
+    // in between only causes a needless reload next time.
+    public synchronized Result get(String user, String view, String sort, long version,
+            Supplier<List<Email>> load, HeaderStore headers) {
+        String key = user.toLowerCase() + '\0' + view + '\0' + sort;
+        Result cached = results.get(key);
+        if (cached != null && cached.version == version) {
+            hits++;
+            savedNanos += cached.costNanos;
+            return cached;
+        }
+        if (cached != null) invalidations++;
+        misses++;
+
+        long start = System.nanoTime();
+        List<Email> emails = load.get();
+        Result result = new Result(version, emails, headers.timestamps(emails), System.nanoTime() - start);
+        results.put(key, result);
+        return result;
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getInvalidations() { return invalidations; }
+    public synchronized long getSavedNanos() { return savedNanos; }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    public String describe() {
+        return String.format("%.0f%% hits (%d of %d), %.1f ms of folder work saved",
+                getHitRate() * 100, getHits(), getHits() + getMisses(), getSavedNanos() / 1e6);
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Regression check: a sender deleting their own Sent copy must not take the
+// delivered message out of the recipient's mailbox. FileDataManager keeps its
+// files under database/ in the working directory, so run this from an empty
+// directory:
+//
+//   javac -cp <classes> -d . test/DeleteSentCopyTest.java
+//   java -cp <classes>:. DeleteSentCopyTest
+public class DeleteSentCopyTest {
+    private static final String SENDER = "sender@mail.cm";
+    private static final String RECIPIENT = "recipient@mail.cm";
+
+    public static void main(String[] args) {
+        if (new File("database").exists()) {
+            System.err.println("Refusing to run: database/ already exists in the working directory.");
+            System.exit(2);
+        }
+
+        FileDataManager dataManager = new FileDataManager();
+        dataManager.addUser(new User("Sender", SENDER, "x"));
+        dataManager.addUser(new User("Recipient", RECIPIENT, "x"));
+
+        Email sent = new Email(SENDER, Arrays.asList(RECIPIENT), "Hello", "Body", new ArrayList<>(), EmailStatus.SENT);
+        Email delivered = new Email(sent.getMessageId(), SENDER, Arrays.asList(RECIPIENT), sent.getContent(),
+                EmailStatus.PENDING);
+        dataManager.addEmail(sent);
+        dataManager.addEmail(delivered);
+        dataManager.deliverEmails(Arrays.asList(delivered));
+        check(inbox(dataManager) == 1, "recipient inbox holds the delivered message");
+
+        dataManager.deleteEmails(Arrays.asList(sent));
+        check(inbox(dataManager) == 1, "recipient inbox unchanged after the sender deletes their Sent copy");
+
+        dataManager.reloadData();
+        check(inbox(dataManager) == 1, "recipient inbox unchanged after reload");
+        System.out.println("DeleteSentCopyTest passed");
+    }
+
+    private static int inbox(IDataManager dataManager) {
+        List<Email> inbox = dataManager.getMailboxState().list(RECIPIENT, EmailStatus.INBOX);
+        return inbox.size();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.err.println("FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}